@@ -0,0 +1,160 @@
+package mll;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/** End-to-end throughput benchmark of logistic regression on synthetic data.
+ *
+ * Generates a dataset (see Synthetic), then measures loading, training and scoring with the different backends:
+ * the HashMap interpreter (as in LogReg.train), MemoryPlan evaluation, sparse training, batch scoring and,
+ * optionally, the native training kernel. For each it records the time, examples/sec, time per epoch, peak heap and GC
+ * time. Results are appended as CSV lines to out/bench/results.csv (one line per measurement), so runs of different
+ * versions can be compared.
+ */
+public class Benchmark {
+	static final String HEADER = "timestamp,label,java,benchmark,rows,dim,sparsity,epochs,seconds,examplesPerSec,secondsPerEpoch,peakHeapMB,gcMillis";
+
+	final String label;
+	final int rows, dim, epochs;
+	final double sparsity;
+	final List<String> results = new ArrayList<>();
+
+	Benchmark(String label, int rows, int dim, double sparsity, int epochs) {
+		this.label = label;
+		this.rows = rows;
+		this.dim = dim;
+		this.sparsity = sparsity;
+		this.epochs = epochs;
+	}
+
+	// run task, record time, peak heap and GC time; examples is the number of processed examples
+	<T> T measure(String benchmark, long examples, int epochs, Callable<T> task) throws Exception {
+		System.gc();
+		var pools = ManagementFactory.getMemoryPoolMXBeans();
+		for (MemoryPoolMXBean pool : pools) pool.resetPeakUsage();
+		long gcBefore = gcMillis();
+		long start = System.nanoTime();
+
+		T result = task.call();
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long gc = gcMillis() - gcBefore;
+		long peak = 0;
+		for (MemoryPoolMXBean pool : pools) {
+			if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+		}
+
+		var line = format("%s,%s,%s,%s,%d,%d,%s,%d,%.6f,%.1f,%.6f,%.1f,%d", Instant.now(), label, System.getProperty("java.version"),
+				benchmark, rows, dim, sparsity, epochs, seconds, examples / seconds, epochs == 0 ? 0. : seconds / epochs,
+				peak / (1024. * 1024.), gc);
+		System.out.println(line);
+		results.add(line);
+		return result;
+	}
+
+	static long gcMillis() {
+		long total = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, gc.getCollectionTime());
+		}
+		return total;
+	}
+
+	// training with a HashMap env per example, as LogReg.train (without rendering graphs)
+	static double[] trainInterpreter(Dataset data, int epochs, double epsilon) throws IOException {
+		int dim = data.cols() - 1;
+		Grad dout = LogReg.gradGraph(dim);
+		DAG dag = dout.dag();
+		double[] w = new double[dim + 1];
+		var env = new HashMap<Op,Double>();
+		for (int epoch=0; epoch<epochs; epoch++) {
+			for (int r=0; r<data.rows(); r++) {
+				env.clear();
+				for (int i=0; i<dim; i++) {
+					env.put(dag.var("x"+(i+1)), data.get(r, i));
+				}
+				env.put(dag.var("y"), data.get(r, dim));
+				LogReg.set_w(dag, env, w);
+				dout.eval(env);
+				var outputs = dout.outputs(env);
+				for (int i=0; i<=dim; i++) {
+					w[i] -= epsilon * dout.grad(outputs, "w"+i);
+				}
+			}
+		}
+		return w;
+	}
+
+	// training with a MemoryPlan context (plain SGD, see Sweep)
+	static double[] trainPlan(Dataset data, int epochs, double epsilon) throws IOException {
+		var results = Sweep.run(data, List.of(new Sweep.Config(epsilon, epochs, 1)), false);
+		return results.get(0).w();
+	}
+
+	// predictions for all examples of data with one batch evaluation of the specialized forward graph
+	static double[] score(Dataset data, double[] w) {
+		var plan = MemoryPlan.of(LogReg.scoringGraph(w));
+		var vars = plan.vars();
+		var columns = new double[vars.length][];
+		for (int i = 0; i<vars.length; i++) {
+			columns[i] = data.column(Integer.parseInt(vars[i].name().substring(1)) - 1);
+		}
+		return plan.evalBatch(data.rows(), columns)[0]; // all rows even if no weight is nonzero
+	}
+
+	void run(boolean withNative) throws Exception {
+		double epsilon = 0.1;
+		var data = Synthetic.dense(rows, dim, sparsity, 42);
+		var file = Paths.get("out/data", format("synthetic_%d_%d.csv", rows, dim));
+		Synthetic.writeCsv(data, file);
+
+		measure("load-lists", rows, 0, () -> LogReg.readCsv(file.toString()));
+		var loaded = measure("load-columns", rows, 0, () -> Dataset.readCsv(file.toString(), Precision.F64));
+		var sparse = SparseDataset.of(loaded);
+
+		measure("train-interpreter", (long) rows * epochs, epochs, () -> trainInterpreter(loaded, epochs, epsilon));
+		var w = measure("train-plan", (long) rows * epochs, epochs, () -> trainPlan(loaded, epochs, epsilon));
+		measure("train-sparse", (long) rows * epochs, epochs, () -> LogReg.trainSparse(sparse, epochs, epsilon));
+		if (withNative) {
+			// includes code generation and compilation
+			measure("train-native", (long) rows * epochs, epochs, () -> LogReg.trainNative(file.toString(), epochs, epsilon));
+		}
+		measure("score-batch", rows, 0, () -> score(loaded, w));
+	}
+
+	// append results to file, writing the header first if the file is new
+	void save(Path file) throws IOException {
+		Files.createDirectories(file.getParent());
+		if (!Files.exists(file)) Files.writeString(file, HEADER + "\n");
+		Files.write(file, results, StandardOpenOption.APPEND);
+		System.out.println("Saved benchmark results: " + file);
+	}
+
+	// usage: Benchmark [rows] [dim] [sparsity] [epochs] [label] [--native]
+	public static void main(String args[]) throws Exception {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int dim = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		double sparsity = args.length > 2 ? Double.parseDouble(args[2]) : 0.;
+		int epochs = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+		var label = args.length > 4 && !args[4].startsWith("--") ? args[4] : "dev";
+		boolean withNative = List.of(args).contains("--native");
+
+		var benchmark = new Benchmark(label, rows, dim, sparsity, epochs);
+		benchmark.run(withNative);
+		benchmark.save(Paths.get("out/bench/results.csv"));
+	}
+}
@@ -0,0 +1,195 @@
+package mll;
+
+import static java.lang.String.format;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Data-parallel training of logistic regression with several processes.
+ *
+ * A coordinator starts worker JVMs (on localhost) and assigns each one shard of the dataset: worker i of n only keeps
+ * the rows r with r % n == i. Each worker runs gradient descent on its shard with a MemoryPlan of the loss gradient
+ * (see Sweep.Model). After every syncEvery local examples, all workers send their weights to the coordinator, which
+ * averages them (weighted by the number of examples each worker processed) and sends the average back. syncEvery = 1
+ * synchronizes after every step; larger values trade communication for staleness (local SGD). Workers update their
+ * weights with an Optimizer (see Optimizer#of); its state stays local to each worker, only weights are averaged.
+ *
+ * Workers proceed in lock step: every epoch has the same number of rounds for all workers, as the number of rounds
+ * is computed from the largest shard.
+ */
+public class DataParallel {
+	// train on file with the given number of worker processes, returns the final weights
+	public static double[] train(String file, int workers, int epochs, double epsilon, int syncEvery) throws IOException, InterruptedException {
+		return train(file, workers, epochs, epsilon, syncEvery, "sgd");
+	}
+
+	// same as above, but workers use the optimizer of the given name
+	public static double[] train(String file, int workers, int epochs, double epsilon, int syncEvery, String optimizer) throws IOException, InterruptedException {
+		int rows = 0, dim = -1;
+		try (BufferedReader reader = Files.newBufferedReader(Paths.get(file))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isBlank()) continue;
+				if (dim < 0) dim = line.split(",").length - 1;
+				rows++;
+			}
+		}
+		if (rows < workers) throw new IllegalArgumentException(format("%d rows cannot be split into %d shards", rows, workers));
+		LogReg.gradGraph(dim); // saves the graph once, so that workers only load it
+
+		try (var server = new ServerSocket(0, workers, InetAddress.getLoopbackAddress())) {
+			server.setSoTimeout(60_000);
+
+			// start workers
+			var java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+			var processes = new ArrayList<Process>();
+			for (int i = 0; i<workers; i++) {
+				var command = List.of(java, "-cp", System.getProperty("java.class.path"), DataParallel.class.getName(), "worker",
+						Integer.toString(server.getLocalPort()), file, Integer.toString(i), Integer.toString(workers),
+						Integer.toString(epochs), Double.toString(epsilon), Integer.toString(syncEvery), optimizer);
+				processes.add(new ProcessBuilder(command).inheritIO().start());
+			}
+
+			// connect (workers say which shard they train on)
+			var in = new DataInputStream[workers];
+			var out = new DataOutputStream[workers];
+			var sockets = new Socket[workers];
+			try {
+				for (int i = 0; i<workers; i++) {
+					var socket = server.accept();
+					var input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+					int shard = input.readInt();
+					sockets[shard] = socket;
+					in[shard] = input;
+					out[shard] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				}
+
+				// average weights after each round
+				long start = System.nanoTime();
+				double[] w = new double[dim + 1];
+				double[] received = new double[dim + 1];
+				int rounds = rounds(rows, workers, syncEvery);
+				for (int epoch = 0; epoch<epochs; epoch++) {
+					double totalLoss = 0.;
+					for (int round = 0; round<rounds; round++) {
+						Arrays.fill(w, 0.);
+						long examples = 0;
+						for (int i = 0; i<workers; i++) {
+							int n = in[i].readInt();
+							totalLoss += in[i].readDouble();
+							for (int j = 0; j<=dim; j++) received[j] = in[i].readDouble();
+							for (int j = 0; j<=dim; j++) w[j] += n * received[j];
+							examples += n;
+						}
+						for (int j = 0; j<=dim; j++) w[j] /= examples;
+						for (int i = 0; i<workers; i++) {
+							for (int j = 0; j<=dim; j++) out[i].writeDouble(w[j]);
+							out[i].flush();
+						}
+					}
+					System.out.println(format("Epoch %2d: avgLoss %.4f", epoch + 1, totalLoss / rows));
+				}
+				double seconds = (System.nanoTime() - start) / 1e9;
+				System.out.println(format("%d workers: %.0f examples/sec", workers, (double) rows * epochs / seconds));
+				System.out.println(format("Final weights: %s", Arrays.toString(w)));
+				return w;
+			} finally {
+				for (var socket : sockets) if (socket != null) socket.close();
+				for (var process : processes) {
+					if (!process.waitFor(10, TimeUnit.SECONDS)) process.destroy();
+				}
+			}
+		}
+	}
+
+	// number of rounds per epoch: the largest shard has ceil(rows / workers) rows
+	static int rounds(int rows, int workers, int syncEvery) {
+		int largest = (rows + workers - 1) / workers;
+		return (largest + syncEvery - 1) / syncEvery;
+	}
+
+	// train on one shard, synchronizing with the coordinator on the given port
+	static void worker(int port, String file, int shard, int shards, int epochs, double epsilon, int syncEvery, String optimizer) throws IOException {
+		// keep only the rows of this shard
+		var records = new ArrayList<List<Double>>();
+		int rows = 0;
+		try (BufferedReader reader = Files.newBufferedReader(Paths.get(file))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isBlank()) continue;
+				if (rows++ % shards != shard) continue;
+				var record = new ArrayList<Double>();
+				for (var value : line.split(",")) record.add(Double.parseDouble(value));
+				records.add(record);
+			}
+		}
+		var data = Dataset.of(records, Precision.F64);
+		int dim = data.cols() - 1;
+		var model = new Sweep.Model(LogReg.gradGraph(dim), dim);
+		var context = model.plan.newContext();
+		var values = new double[model.column.length];
+		var w = new double[dim + 1];
+		var update = Optimizer.of(optimizer, epsilon);
+		int rounds = rounds(rows, shards, syncEvery);
+
+		try (var socket = new Socket(InetAddress.getLoopbackAddress(), port);
+				var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+			out.writeInt(shard);
+			out.flush();
+			for (int epoch = 0; epoch<epochs; epoch++) {
+				int r = 0;
+				for (int round = 0; round<rounds; round++) {
+					// local gradient descent steps
+					int n = 0;
+					double loss = 0.;
+					for (; n<syncEvery && r<data.rows(); n++, r++) {
+						for (int i = 0; i<values.length; i++) {
+							values[i] = model.column[i] >= 0 ? data.get(r, model.column[i]) : w[model.weight[i]];
+						}
+						var res = context.eval(values);
+						loss += res[0];
+						update.step(w, res, model.grad, 1);
+					}
+
+					// exchange weights for their average
+					out.writeInt(n);
+					out.writeDouble(loss);
+					for (var wi : w) out.writeDouble(wi);
+					out.flush();
+					for (int i = 0; i<w.length; i++) w[i] = in.readDouble();
+				}
+			}
+		}
+	}
+
+	// usage: DataParallel <data.csv> [workers] [epochs] [epsilon] [syncEvery] [optimizer]
+	//    or: DataParallel worker <port> <data.csv> <shard> <shards> <epochs> <epsilon> <syncEvery> <optimizer> (started by the coordinator)
+	public static void main(String args[]) throws IOException, InterruptedException {
+		if (args.length > 0 && args[0].equals("worker")) {
+			worker(Integer.parseInt(args[1]), args[2], Integer.parseInt(args[3]), Integer.parseInt(args[4]),
+					Integer.parseInt(args[5]), Double.parseDouble(args[6]), Integer.parseInt(args[7]), args[8]);
+			return;
+		}
+		var file = args.length > 0 ? args[0] : "out/data/data_2d_20.csv";
+		int workers = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+		int epochs = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+		double epsilon = args.length > 3 ? Double.parseDouble(args[3]) : 0.1;
+		int syncEvery = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+		var optimizer = args.length > 5 ? args[5] : "sgd";
+		train(file, workers, epochs, epsilon, syncEvery, optimizer);
+	}
+}
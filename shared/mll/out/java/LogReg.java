@@ -5,6 +5,8 @@ import static java.lang.String.format;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -16,7 +18,12 @@ public class LogReg {
 	// prediction = sigma(w0 + sum w_i*x_i)
 	// that's the model probability of label 1 (true)
 	public static Op forwardGraph(int dim) {
-		DAG dag = new DAG();
+		return forwardGraph(dim, Precision.F64);
+	}
+
+	// same as above, but evaluated and compiled with the given precision
+	public static Op forwardGraph(int dim, Precision precision) {
+		DAG dag = new DAG(precision);
 
 		// linear predictor
 		Op eta = dag.lit0();
@@ -26,10 +33,37 @@ public class LogReg {
 			eta = eta.add(wv.mul(xv));
 		}
 
-		// apply logistic function
-		Op result = dag.lit1().div(dag.lit1().add(eta.neg().exp()));
+		return sigma(eta);
+	}
+
+	// forward graph specialized on trained weights w (bound as literals): its only inputs are the features x1,...,xD
+	// with a nonzero weight, so scoring passes less data and evaluates fewer operators per example
+	public static Op scoringGraph(double[] w) {
+		Op forwardGraph = forwardGraph(w.length - 1);
+		DAG dag = forwardGraph.dag();
+		var bindings = new HashMap<Var,Double>();
+		for (int i=0; i<w.length; i++) {
+			bindings.put(dag.var("w"+i), w[i]);
+		}
+		return forwardGraph.specialize(bindings);
+	}
 
-		return result;
+	// apply logistic function
+	static Op sigma(Op eta) {
+		var dag = eta.dag();
+		return dag.lit1().div(dag.lit1().add(eta.neg().exp()));
+	}
+
+	// prediction for an example with k active (nonzero) features
+	// = sigma(w0 + sum a_j*v_j), where v_j is the value of the j-th active feature and a_j its weight
+	// the graph only grows with the number of active features, not with the dimension
+	public static Op sparseForwardGraph(int k) {
+		DAG dag = new DAG();
+		Op eta = dag.var("w0");
+		for (int j = 1; j<=k; j++) {
+			eta = eta.add(dag.var("a"+j).mul(dag.var("v"+j)));
+		}
+		return sigma(eta);
 	}
 
 	// log loss on top of prediction = -(y*log(prediction) + (1-y)*log(1-prediction))
@@ -41,6 +75,42 @@ public class LogReg {
 		return loss;
 	}
 
+	// version of the optimizations applied by gradGraph, part of the name of stored graphs
+	// bump it whenever the pipeline changes, so graphs stored by an older pipeline are re-derived instead of loaded
+	// (1: backwards only, 2: PassManager and EGraph, 3: EGraph with rule backoff and without expansion)
+	static final int PIPELINE = 3;
+
+	// gradient graph of the loss for dim features
+	// derived once and stored in out/graphs, later calls load the stored graph instead of re-deriving it
+	public static Grad gradGraph(int dim) throws IOException {
+		return gradGraph(dim, Precision.F64);
+	}
+
+	// same as above, but evaluated and compiled with the given precision
+	public static Grad gradGraph(int dim, Precision precision) throws IOException {
+		var file = Paths.get("out/graphs", "logreg-diff-" + dim + suffix(precision) + "-p" + PIPELINE + ".mllg");
+		if (Files.exists(file)) {
+			try {
+				return GraphIO.loadGrad(new DAG(precision), file);
+			} catch (IOException e) {
+				// e.g., truncated or corrupt: derive it again and overwrite it
+				System.out.println("Warning: cannot load stored gradient graph, re-deriving it: " + e.getMessage());
+			}
+		}
+
+		// simplify locally, then search for a cheaper equivalent graph (see EGraph)
+		Grad dout = EGraph.optimize(PassManager.standard().run(lossGraph(forwardGraph(dim, precision)).backwards()));
+		dout.dag().prune(dout);
+		Files.createDirectories(file.getParent());
+		GraphIO.save(file, dout);
+		return dout;
+	}
+
+	// file name suffix for graphs and kernels of the given precision
+	static String suffix(Precision precision) {
+		return precision == Precision.F64 ? "" : "-" + precision.name().toLowerCase();
+	}
+
 	// read the training data (features xi + labels y)
 	// CSV format: x1,x2,...,xD,y
 	public static List<List<Double>> readCsv(String file) throws FileNotFoundException {
@@ -62,6 +132,11 @@ public class LogReg {
 	// epochs is the number of passes through training data
 	// epsilon is the step size
 	public static double[] train(List<List<Double>> data, int epochs, double epsilon) throws IOException {
+		return train(data, epochs, new Optimizer.Sgd(epsilon));
+	}
+
+	// same as above, but the weights are updated by the given optimizer (see Optimizer)
+	public static double[] train(List<List<Double>> data, int epochs, Optimizer optimizer) throws IOException {
 		// plot all the compute graphs for illustrative purposes
 		int dim = data.get(0).size() - 1;
 
@@ -71,64 +146,191 @@ public class LogReg {
 		Op lossGraph = lossGraph(forwardGraph);
 		Util.saveDotPng(lossGraph.dot(), "logreg-loss-"+dim);
 		
-		Grad dout = lossGraph.backwards(); // we only need this one below		
+		Grad dout = PassManager.standard().run(lossGraph.backwards()); // we only need this one below		
 		Util.saveDotPng(dout.dot(), "logreg-diff-"+dim);
 
 		// start training (with incremental gradient descent)
-		DAG dag = dout.dag();
 		double[] w = new double[dim + 1]; // initially all 0
-		var env = new HashMap<Op,Double>();
+		int[] grad = new int[dim + 1];    // positions of the partial derivatives w.r.t. w0,...,wD in the outputs of dout
+		for (int i=0; i<=dim; i++) {
+			grad[i] = dout.index("w"+i);
+		}
+
+		// the inputs of dout (in the order of its free variables) are the data (x1,...,xD), the label y
+		// and the weights (w0=bias, w1...wD = feature weight)
+		var vars = dout.freeVars();
+		int[] column = new int[vars.length]; // position in the example of the i-th input, or -1 for a weight
+		int[] weight = new int[vars.length]; // weight of the i-th input, or -1
+		for (int i=0; i<vars.length; i++) {
+			var name = vars[i].name();
+			column[i] = name.equals("y") ? dim : name.startsWith("x") ? Integer.parseInt(name.substring(1)) - 1 : -1;
+			weight[i] = name.startsWith("w") ? Integer.parseInt(name.substring(1)) : -1;
+		}
+		var values = new double[vars.length];
+
+		// interprets the first examples, then switches to a compiled plan (see ExecutionManager)
+		var executor = new ExecutionManager();
 		System.out.println(format("Initial weights: %s", Arrays.toString(w)));
 		for (int epoch=0; epoch<epochs; epoch++) {
 			double totalLoss = 0.;
 
 			// process each example individually
 			for (var example : data) {
-				env.clear();
-
-				// set data in compute graph (x1,...,xD) and label y
-				// and the weights (w0=bias, w1...wD = feature weight)
-				set_x(dag, env, example.subList(0, dim));
-				env.put(dag.var("y"), example.get(dim));
-				set_w(dag, env, w);
-				
-				// now run forward/backward
-				dout.eval(env);
-				totalLoss += dout.result(); // result holds the loss
-
-				// obtain the gradient
-				double[] dw = new double[dim + 1];
-				for (int i=0; i<=dim; i++) {
-					dw[i] = dout.grad("w"+i); // grad holds the partial derivatives
+				for (int i=0; i<vars.length; i++) {
+					values[i] = column[i] >= 0 ? example.get(column[i]) : w[weight[i]];
 				}
 
-				// and update the weights using a gradient descent step
-				for (int i=0; i<=dim; i++) {
-					w[i] -= epsilon * dw[i]; 
-				}
+				// now run forward/backward
+				var outputs = executor.eval(dout, values);
+				totalLoss += dout.result(outputs); // result holds the loss
+
+				// update the weights with the gradient (the partial derivatives in the outputs)
+				optimizer.step(w, outputs, grad, 1);
 			}
 
 			// print some statistics
 			System.out.println(format("Epoch %2d: avgLoss %3.4f, weights %s",
 					epoch+1, totalLoss/data.size(), Arrays.toString(w)));
 		}
+		System.out.print(executor.stats());
 
 		return w;
 	}
 
+	// same as train, but runs a native training kernel generated from the gradient graph (see Grad#llvmTrain)
+	// the kernel performs all epochs in one call, file is the CSV file holding the training data
+	public static double[] trainNative(String file, int epochs, double epsilon) throws IOException {
+		return trainNative(file, epochs, epsilon, Precision.F64);
+	}
+
+	// same as above, but the kernel computes (and stores the data) with the given precision
+	public static double[] trainNative(String file, int epochs, double epsilon, Precision precision) throws IOException {
+		int dim;
+		try (var lines = Files.lines(Paths.get(file))) {
+			dim = lines.findFirst().orElseThrow().split(",").length - 1;
+		}
+		Grad dout = gradGraph(dim, precision);
+		DAG dag = dout.dag();
+
+		// columns of the data (x1,...,xD,y) and the weights (w0=bias, w1...wD = feature weight)
+		var inputs = new Var[dim + 1];
+		for (int i=0; i<dim; i++) {
+			inputs[i] = dag.var("x"+(i+1));
+		}
+		inputs[dim] = dag.var("y");
+		var weights = new Var[dim + 1];
+		for (int i=0; i<=dim; i++) {
+			weights[i] = dag.var("w"+i);
+		}
+
+		var name = "logreg-train-" + dim + suffix(precision);
+		Files.createDirectories(Paths.get("out/llvm"));
+		try (var writer = Files.newBufferedWriter(Paths.get("out/llvm", name + ".ll"))) {
+			dout.llvmTrain(writer, inputs, weights);
+		}
+		Util.clang(name, "train.c", precision);
+		var output = Util.runBinary(name, file, Integer.toString(epochs), Double.toString(epsilon));
+
+		// the driver prints the final weights last: "weights: (w0, w1, ...)"
+		var start = output.lastIndexOf("weights: (") + "weights: (".length();
+		var values = output.substring(start, output.indexOf(')', start)).split(",");
+		return Arrays.stream(values).mapToDouble(v -> Double.parseDouble(v.trim())).toArray();
+	}
+
+	// same as train, but for sparse data: each example only evaluates and updates the weights of its active features
+	// and w0, so the cost per example scales with the number of nonzeros instead of the dimension
+	public static double[] trainSparse(SparseDataset data, int epochs, double epsilon) {
+		double[] w = new double[data.dim() + 1]; // initially all 0
+		var graphs = new HashMap<Integer, SparseGraph>(); // gradient graph by number of active features
+		for (int epoch=0; epoch<epochs; epoch++) {
+			double totalLoss = 0.;
+
+			for (int r=0; r<data.rows(); r++) {
+				var graph = graphs.computeIfAbsent(SparseGraph.slots(data.nnz(r)),
+						k -> new SparseGraph(lossGraph(sparseForwardGraph(k)).backwards(), k));
+				var out = graph.eval(data, r, w);
+				totalLoss += out[0];
+
+				// gradient descent step, only for weights with a (potentially) nonzero partial derivative
+				w[0] -= epsilon * out[graph.dw0];
+				for (int i = data.start(r), j = 0; i < data.end(r); i++, j++) {
+					w[data.index(i)] -= epsilon * out[graph.da[j]];
+				}
+			}
+
+			System.out.println(format("Epoch %2d: avgLoss %3.4f", epoch+1, totalLoss/data.rows()));
+		}
+		return w;
+	}
+
+	/** Run a trained logistic regression model on the provided sparse inputs and print the result. */
+	public static void evaluateSparse(SparseDataset data, double[] w) {
+		var graphs = new HashMap<Integer, SparseGraph>(); // forward graph by number of active features
+		for (int r=0; r<data.rows(); r++) {
+			var graph = graphs.computeIfAbsent(SparseGraph.slots(data.nnz(r)), k -> new SparseGraph(sparseForwardGraph(k), k));
+			double pred = graph.eval(data, r, w)[0];
+			System.out.println(format("Example %d, prediction: %f", r, pred));
+		}
+	}
+
+	// a graph over k active features (see sparseForwardGraph) prepared for evaluation with a MemoryPlan
+	static class SparseGraph {
+		final MemoryPlan plan;
+		final MemoryPlan.Context context;
+		final int[] a, v;  // positions of a_j and v_j in the inputs of plan
+		final int w0, y;   // positions of w0 and y in the inputs of plan (y is -1 for forward graphs)
+		final int[] da;    // positions of the partial derivatives w.r.t. a_j in the outputs of plan (for Grads)
+		final int dw0;     // position of the partial derivative w.r.t. w0 in the outputs of plan (for Grads)
+		final double[] values; // reused for every example
+
+		SparseGraph(Op root, int k) {
+			plan = MemoryPlan.of(root);
+			context = plan.newContext();
+			var names = Arrays.stream(plan.vars()).map(Var::name).toList();
+			a  = new int[k];
+			v  = new int[k];
+			da = new int[k];
+			for (int j = 0; j<k; j++) {
+				a[j]  = names.indexOf("a"+(j+1));
+				v[j]  = names.indexOf("v"+(j+1));
+				da[j] = root instanceof Grad grad ? grad.index("a"+(j+1)) : -1;
+			}
+			w0  = names.indexOf("w0");
+			y   = names.indexOf("y");
+			dw0 = root instanceof Grad grad ? grad.index("w0") : -1;
+
+			values = new double[names.size()];
+		}
+
+		// number of slots to use for nnz active features: the next power of two, so only few graphs are needed
+		static int slots(int nnz) {
+			return nnz <= 1 ? nnz : Integer.highestOneBit(nnz - 1) << 1;
+		}
+
+		// evaluate for row r of data with weights w, unused slots are padded with zeros
+		double[] eval(SparseDataset data, int r, double[] w) {
+			Arrays.fill(values, 0.);
+			for (int i = data.start(r), j = 0; i < data.end(r); i++, j++) {
+				values[a[j]] = w[data.index(i)];
+				values[v[j]] = data.value(i);
+			}
+			values[w0] = w[0];
+			if (y >= 0) values[y] = data.label(r);
+			return context.eval(values); // owned by context, overwritten by the next evaluation
+		}
+	}
+
 	/** Run a trained logistic regression model on the provided inputs and print the result. */
 	public static void evaluate(List<List<Double>> data, double[] w) {
 		int dim = data.get(0).size() - 1;
-		Op forwardGraph = forwardGraph(dim); // to predict, we only need this graph
+		Op forwardGraph = scoringGraph(w); // to predict, we only need this graph (with the weights built in)
 		DAG dag = forwardGraph.dag();
 		var env = new HashMap<Op,Double>();
 		for (var example : data) {
 			env.clear();
 
 			// set data in compute graph (x1,...,xD)
-			// and the weights (w0=bias, w1...wD = feature weight)
 			set_x(dag, env, example.subList(0, dim));
-			set_w(dag, env, w);
 			
 			// now run forward
 			double pred = forwardGraph.eval(env);
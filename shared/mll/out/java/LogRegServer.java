@@ -0,0 +1,185 @@
+package mll;
+
+import static java.lang.String.format;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/** A local scoring service for a trained logistic regression model.
+ *
+ * Clients connect via TCP and send one example per line (x1,...,xD); the server answers each line with the
+ * prediction. The line "stats" is answered with the number of requests and batches as well as the p50/p99 latency.
+ * Each connection is handled by a virtual thread. Requests of all connections are coalesced into micro-batches: a
+ * batch is evaluated as soon as it holds maxBatch requests or its oldest request has waited for the latency budget.
+ * All batches share one MemoryPlan of the forward graph specialized on the weights (see LogReg.scoringGraph).
+ */
+public class LogRegServer {
+	// a pending request and the time it arrived
+	record Request(double[] x, long arrival, CompletableFuture<Double> prediction) {}
+
+	private final int dim;
+	private final MemoryPlan plan;
+	private final long budgetNanos;
+	private final int maxBatch;
+	private final BlockingQueue<Request> queue = new ArrayBlockingQueue<>(1 << 16);
+
+	// latencies (in ns) of the last LATENCIES requests, to compute percentiles
+	static final int LATENCIES = 1 << 16;
+	private final long[] latencies = new long[LATENCIES];
+	private long requests = 0, batches = 0;
+
+	public LogRegServer(double[] w, long budgetMicros, int maxBatch) {
+		this.dim = w.length - 1;
+		this.plan = MemoryPlan.of(LogReg.scoringGraph(w));
+		this.budgetNanos = TimeUnit.MICROSECONDS.toNanos(budgetMicros);
+		this.maxBatch = maxBatch;
+	}
+
+	// accept connections on the given port until the process is stopped
+	public void serve(int port) throws IOException {
+		var batcher = new Thread(this::batchLoop, "mll-batcher");
+		batcher.setDaemon(true);
+		batcher.start();
+
+		try (var server = new ServerSocket(port); var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			System.out.println(format("Serving model with %d features on port %d", dim, server.getLocalPort()));
+			while (true) {
+				var socket = server.accept();
+				executor.submit(() -> handle(socket));
+			}
+		}
+	}
+
+	// answer the requests of one connection
+	private void handle(Socket socket) {
+		try (socket;
+				var in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+				var out = new PrintWriter(socket.getOutputStream(), true)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.strip();
+				if (line.isEmpty()) continue;
+				if (line.equals("stats")) {
+					out.println(stats());
+					continue;
+				}
+				try {
+					out.println(predict(parse(line)));
+				} catch (IllegalArgumentException | ExecutionException e) {
+					out.println("error: " + e.getMessage());
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Connection failed: " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// parse one example x1,...,xD
+	private double[] parse(String line) {
+		var values = line.split(",");
+		if (values.length != dim) throw new IllegalArgumentException(format("expected %d values", dim));
+		return Arrays.stream(values).mapToDouble(v -> Double.parseDouble(v.trim())).toArray();
+	}
+
+	// enqueue an example and wait for its prediction
+	public double predict(double[] x) throws InterruptedException, ExecutionException {
+		if (x.length != dim) throw new IllegalArgumentException(format("expected %d values", dim));
+		var request = new Request(x, System.nanoTime(), new CompletableFuture<>());
+		queue.put(request);
+		return request.prediction().get();
+	}
+
+	// collect requests into batches and evaluate them
+	private void batchLoop() {
+		var batch = new ArrayList<Request>(maxBatch);
+		try {
+			while (true) {
+				var first = queue.take();
+				batch.add(first);
+				long deadline = first.arrival() + budgetNanos;
+				while (batch.size() < maxBatch) {
+					long wait = deadline - System.nanoTime();
+					var next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+					if (next == null) break;
+					batch.add(next);
+				}
+				try {
+					evaluate(batch);
+				} catch (RuntimeException e) {
+					// fail the requests of this batch, but keep serving
+					for (var request : batch) request.prediction().completeExceptionally(e);
+				}
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// evaluate the scoring graph once for the whole batch (its inputs are the features with nonzero weight)
+	private void evaluate(ArrayList<Request> batch) {
+		int n = batch.size();
+		var vars = plan.vars();
+		var columns = new double[vars.length][];
+		for (int i = 0; i<vars.length; i++) {
+			int index = Integer.parseInt(vars[i].name().substring(1));
+			columns[i] = new double[n];
+			for (int r = 0; r<n; r++) {
+				columns[i][r] = batch.get(r).x()[index - 1];
+			}
+		}
+		var predictions = plan.evalBatch(n, columns)[0]; // n rows even if the graph is constant (all weights 0)
+
+		long now = System.nanoTime();
+		synchronized (latencies) {
+			for (var request : batch) {
+				latencies[(int) (requests++ % LATENCIES)] = now - request.arrival();
+			}
+			batches++;
+		}
+		for (int r = 0; r<n; r++) {
+			batch.get(r).prediction().complete(predictions[r]);
+		}
+	}
+
+	// number of requests and batches, p50/p99 latency over the most recent requests
+	public String stats() {
+		long[] sorted;
+		long total, numBatches;
+		synchronized (latencies) {
+			total = requests;
+			numBatches = batches;
+			sorted = Arrays.copyOf(latencies, (int) Math.min(requests, LATENCIES));
+		}
+		if (sorted.length == 0) return "requests 0";
+		Arrays.sort(sorted);
+		return format("requests %d, batches %d, p50 %.3f ms, p99 %.3f ms", total, numBatches,
+				sorted[sorted.length / 2] / 1e6, sorted[(int) (sorted.length * 0.99)] / 1e6);
+	}
+
+	// train on a CSV file, then serve the model
+	// usage: LogRegServer <data.csv> [port] [latency budget in us] [max batch size]
+	public static void main(String args[]) throws IOException {
+		var data = LogReg.readCsv(args.length > 0 ? args[0] : "out/data/data_1d_10.csv");
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 7070;
+		long budget = args.length > 2 ? Long.parseLong(args[2]) : 500;
+		int maxBatch = args.length > 3 ? Integer.parseInt(args[3]) : 256;
+
+		var w = LogReg.train(data, 100, 0.1);
+		new LogRegServer(w, budget, maxBatch).serve(port);
+	}
+}
@@ -0,0 +1,195 @@
+package mll;
+
+import static java.lang.String.format;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/** Online training of logistic regression on an unbounded stream of examples.
+ *
+ * Examples arrive as lines x1,...,xD,y (the format of LogReg.readCsv; D is taken from the first line) on stdin, a
+ * file or named pipe, or a socket. A parse thread turns lines into rows and hands them to the training thread through
+ * a bounded queue, which runs one optimizer step per row on a MemoryPlan of the loss gradient (see Sweep.Model). When
+ * training falls behind, the queue fills up and the parse thread blocks, so the producer is slowed down instead of
+ * rows piling up (backpressure).
+ *
+ * Every snapshotEvery rows, a snapshot of the weights and the average loss of the last window rows is published.
+ * Memory is constant: rows are parsed into a fixed pool of buffers that circulate between the two threads.
+ */
+public class OnlineTrainer {
+	// published state: number of examples trained on, weights and average loss of the most recent examples
+	public record Snapshot(long rows, double[] w, double rollingLoss) {}
+
+	// marks the end of the stream in the queue
+	static final double[] END = new double[0];
+
+	private final Optimizer optimizer;
+	private final int snapshotEvery;
+	private final int window;
+	private final Consumer<Snapshot> listener;
+
+	// parsed rows waiting to be trained on, and buffers that can be reused for parsing
+	private final BlockingQueue<double[]> rows;
+	private final BlockingQueue<double[]> free;
+	private final int maxBuffers;
+	private int buffers = 0;
+
+	private volatile Snapshot latest = null;
+	private volatile long skipped = 0; // malformed lines
+	private volatile IOException failure = null;
+
+	public OnlineTrainer(Optimizer optimizer, int capacity, int snapshotEvery, int window, Consumer<Snapshot> listener) {
+		this.optimizer = optimizer;
+		this.snapshotEvery = snapshotEvery;
+		this.window = window;
+		this.listener = listener;
+		this.rows = new ArrayBlockingQueue<>(capacity);
+		this.maxBuffers = capacity + 2; // queued rows, plus the one being parsed and the one being trained on
+		this.free = new ArrayBlockingQueue<>(maxBuffers);
+	}
+
+	// most recently published snapshot (null before the first one)
+	public Snapshot latest() { return latest; }
+
+	// number of lines skipped because they could not be parsed
+	public long skipped() { return skipped; }
+
+	// train on all examples of in until it ends, returns the final snapshot
+	public Snapshot run(InputStream in) throws IOException, InterruptedException {
+		var parser = new Thread(() -> parse(in), "mll-parse");
+		parser.setDaemon(true);
+		parser.start();
+		try {
+			train();
+		} finally {
+			parser.interrupt();
+		}
+		if (failure != null) throw failure;
+		return latest;
+	}
+
+	// parse stage: lines to rows
+	private void parse(InputStream in) {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
+			int cols = -1;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.strip();
+				if (line.isEmpty()) continue;
+				var values = line.split(",");
+				if (cols < 0) cols = values.length;
+				if (values.length != cols || cols < 2) {
+					skipped++;
+					continue;
+				}
+				var row = buffer(cols);
+				try {
+					for (int i = 0; i<cols; i++) row[i] = Double.parseDouble(values[i]);
+				} catch (NumberFormatException e) {
+					free.put(row);
+					skipped++;
+					continue;
+				}
+				rows.put(row); // blocks while the queue is full
+			}
+		} catch (IOException e) {
+			failure = e;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		try {
+			rows.put(END);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// a free buffer for a row of cols values (only the parse thread allocates, at most maxBuffers)
+	private double[] buffer(int cols) throws InterruptedException {
+		var row = free.poll();
+		if (row != null) return row;
+		if (buffers < maxBuffers) {
+			buffers++;
+			return new double[cols];
+		}
+		return free.take();
+	}
+
+	// train stage: one optimizer step per row
+	private void train() throws IOException, InterruptedException {
+		Sweep.Model model = null;
+		MemoryPlan.Context context = null;
+		double[] w = null, values = null;
+		var losses = new double[window]; // ring buffer of the most recent losses
+		double lossSum = 0.;
+		long n = 0;
+		while (true) {
+			var row = rows.take();
+			if (row == END) break;
+			if (model == null) {
+				int dim = row.length - 1;
+				model = new Sweep.Model(LogReg.gradGraph(dim), dim);
+				context = model.plan.newContext();
+				w = new double[dim + 1]; // initially all 0
+				values = new double[model.column.length];
+			}
+
+			for (int i = 0; i<values.length; i++) {
+				values[i] = model.column[i] >= 0 ? row[model.column[i]] : w[model.weight[i]];
+			}
+			free.put(row); // row is no longer needed
+
+			var out = context.eval(values);
+			int slot = (int) (n % window);
+			lossSum += out[0] - losses[slot];
+			losses[slot] = out[0];
+			n++;
+			if (slot == window - 1) lossSum = Arrays.stream(losses).sum(); // avoid drift of the running sum
+
+			optimizer.step(w, out, model.grad, 1);
+			if (n % snapshotEvery == 0) publish(n, w, lossSum / Math.min(n, window));
+		}
+		if (n % snapshotEvery != 0) publish(n, w, lossSum / Math.min(n, window));
+	}
+
+	private void publish(long n, double[] w, double rollingLoss) {
+		latest = new Snapshot(n, w.clone(), rollingLoss);
+		listener.accept(latest);
+	}
+
+	// usage: OnlineTrainer [source] [epsilon] [snapshotEvery] [window] [optimizer]
+	// source is - (stdin, the default), tcp:<port> (accept one connection) or a file (e.g., a named pipe)
+	public static void main(String args[]) throws IOException, InterruptedException {
+		var source = args.length > 0 ? args[0] : "-";
+		double epsilon = args.length > 1 ? Double.parseDouble(args[1]) : 0.1;
+		int snapshotEvery = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+		int window = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+		var optimizer = Optimizer.of(args.length > 4 ? args[4] : "sgd", epsilon);
+
+		var trainer = new OnlineTrainer(optimizer, 1024, snapshotEvery, window, snapshot ->
+				System.out.println(format("%d rows: rollingLoss %.4f, weights %s", snapshot.rows(), snapshot.rollingLoss(),
+						Arrays.toString(snapshot.w()))));
+		if (source.equals("-")) {
+			trainer.run(System.in);
+		} else if (source.startsWith("tcp:")) {
+			try (var server = new ServerSocket(Integer.parseInt(source.substring(4))); var socket = server.accept()) {
+				trainer.run(socket.getInputStream());
+			}
+		} else {
+			try (var in = Files.newInputStream(Paths.get(source))) {
+				trainer.run(in);
+			}
+		}
+		if (trainer.skipped() > 0) System.out.println(format("Skipped %d malformed lines", trainer.skipped()));
+	}
+}
@@ -0,0 +1,163 @@
+package mll;
+
+import static java.lang.String.format;
+
+import java.util.Arrays;
+
+/** Gradient-based update rules for the weights of a model.
+ *
+ * An optimizer keeps its state (velocities, moment estimates, ...) in primitive arrays with one entry per weight,
+ * allocated once on the first step (or when the number of weights changes). A step reads the gradient directly from
+ * the outputs of a Grad or MemoryPlan, g[index[i]] being the partial derivative w.r.t. w[i], and updates state and
+ * weights in the same pass, so training allocates nothing per step. For gradients that are already contiguous (e.g.,
+ * accumulated over a batch), pass identity(n) as index.
+ *
+ * Optimizers are stateful and belong to one training run: use a new instance (see of) per run.
+ */
+public abstract class Optimizer {
+	protected final double epsilon; // step size
+
+	protected Optimizer(double epsilon) {
+		this.epsilon = epsilon;
+	}
+
+	// update w with the gradient g[index[0]], g[index[1]], ... divided by batch (the number of examples g is summed
+	// over, 1 for a single example)
+	public final void step(double[] w, double[] g, int[] index, double batch) {
+		if (size() != w.length) reset(w.length);
+		update(w, g, index, batch);
+	}
+
+	// fused update of state and weights, called with state for w.length weights
+	protected abstract void update(double[] w, double[] g, int[] index, double batch);
+
+	// number of weights the state is allocated for
+	protected abstract int size();
+
+	// (re)allocate the state for n weights, as before the first step
+	public abstract void reset(int n);
+
+	// index for gradients stored in g[0], g[1], ...
+	public static int[] identity(int n) {
+		var index = new int[n];
+		Arrays.setAll(index, i -> i);
+		return index;
+	}
+
+	// optimizer by name (sgd, momentum, adagrad, adam) with default hyperparameters besides epsilon
+	public static Optimizer of(String name, double epsilon) {
+		return switch (name) {
+		case "sgd" -> new Sgd(epsilon);
+		case "momentum" -> new Momentum(epsilon, 0.9);
+		case "adagrad" -> new AdaGrad(epsilon, 1e-8);
+		case "adam" -> new Adam(epsilon, 0.9, 0.999, 1e-8);
+		default -> throw new IllegalArgumentException(format("unknown optimizer %s (sgd, momentum, adagrad, adam)", name));
+		};
+	}
+
+	// w -= epsilon * g
+	public static class Sgd extends Optimizer {
+		private int size = -1;
+
+		public Sgd(double epsilon) {
+			super(epsilon);
+		}
+
+		@Override protected void update(double[] w, double[] g, int[] index, double batch) {
+			for (int i = 0; i<w.length; i++) {
+				w[i] -= epsilon * g[index[i]] / batch;
+			}
+		}
+
+		@Override protected int size() { return size; }
+		@Override public void reset(int n) { size = n; }
+		@Override public String toString() { return format("sgd(%g)", epsilon); }
+	}
+
+	// v = beta * v + g, w -= epsilon * v (heavy ball)
+	public static class Momentum extends Optimizer {
+		private final double beta;
+		private double[] v = new double[0];
+
+		public Momentum(double epsilon, double beta) {
+			super(epsilon);
+			this.beta = beta;
+		}
+
+		@Override protected void update(double[] w, double[] g, int[] index, double batch) {
+			for (int i = 0; i<w.length; i++) {
+				double vi = beta * v[i] + g[index[i]] / batch;
+				v[i] = vi;
+				w[i] -= epsilon * vi;
+			}
+		}
+
+		@Override protected int size() { return v.length; }
+		@Override public void reset(int n) { v = new double[n]; }
+		@Override public String toString() { return format("momentum(%g, %g)", epsilon, beta); }
+	}
+
+	// s += g^2, w -= epsilon * g / (sqrt(s) + delta): per-weight step sizes shrinking with the gradients seen so far
+	public static class AdaGrad extends Optimizer {
+		private final double delta;
+		private double[] s = new double[0];
+
+		public AdaGrad(double epsilon, double delta) {
+			super(epsilon);
+			this.delta = delta;
+		}
+
+		@Override protected void update(double[] w, double[] g, int[] index, double batch) {
+			for (int i = 0; i<w.length; i++) {
+				double gi = g[index[i]] / batch;
+				double si = s[i] + gi * gi;
+				s[i] = si;
+				w[i] -= epsilon * gi / (Math.sqrt(si) + delta);
+			}
+		}
+
+		@Override protected int size() { return s.length; }
+		@Override public void reset(int n) { s = new double[n]; }
+		@Override public String toString() { return format("adagrad(%g)", epsilon); }
+	}
+
+	// moving averages of g and g^2 with bias correction (Kingma and Ba, 2015)
+	public static class Adam extends Optimizer {
+		private final double beta1, beta2, delta;
+		private double[] m = new double[0], v = new double[0];
+		private double beta1t = 1., beta2t = 1.; // beta1^t and beta2^t after t steps
+
+		public Adam(double epsilon, double beta1, double beta2, double delta) {
+			super(epsilon);
+			this.beta1 = beta1;
+			this.beta2 = beta2;
+			this.delta = delta;
+		}
+
+		@Override protected void update(double[] w, double[] g, int[] index, double batch) {
+			beta1t *= beta1;
+			beta2t *= beta2;
+			// bias corrections folded into the step size and delta instead of being applied per weight
+			double step = epsilon * Math.sqrt(1. - beta2t) / (1. - beta1t);
+			double d = delta * Math.sqrt(1. - beta2t);
+			for (int i = 0; i<w.length; i++) {
+				double gi = g[index[i]] / batch;
+				double mi = beta1 * m[i] + (1. - beta1) * gi;
+				double vi = beta2 * v[i] + (1. - beta2) * gi * gi;
+				m[i] = mi;
+				v[i] = vi;
+				w[i] -= step * mi / (Math.sqrt(vi) + d);
+			}
+		}
+
+		@Override protected int size() { return m.length; }
+
+		@Override public void reset(int n) {
+			m = new double[n];
+			v = new double[n];
+			beta1t = beta2t = 1.;
+		}
+
+		@Override public String toString() { return format("adam(%g, %g, %g)", epsilon, beta1, beta2); }
+	}
+}
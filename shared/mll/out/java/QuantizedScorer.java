@@ -0,0 +1,283 @@
+package mll;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/** Scoring of a trained logistic regression model with 8-bit integer features and weights.
+ *
+ * Calibration chooses a symmetric scale per feature column, s_j = max |x_j| / 127 over the calibration data, so that
+ * x_j is approximately s_j * q_j with q_j = round(x_j / s_j) in [-127, 127]. The column scales are folded into the
+ * weights, u_j = w_j * s_j, which are quantized the same way with one scale t. Then
+ *
+ *   prediction = sigma(w0 + sum w_j*x_j) ~ sigma(w0 + t * sum qu_j*q_j)
+ *
+ * i.e., the dot product is computed exactly in 32-bit integers on bytes and only the bias, the scale and the logistic
+ * function are evaluated in floating point. Quantized rows take 1 instead of 8 bytes per feature, which pays off when
+ * batch scoring is bound by memory bandwidth, i.e., for many features and data that does not fit into the caches.
+ *
+ * For few features the logistic function (one exp per row) costs about as much as the dot product. Where only the
+ * decision is needed, classify skips it: prediction > 0.5 iff w0 + t * acc > 0 iff acc >= threshold for the integer
+ * threshold below, so a row is classified with integer arithmetic only.
+ *
+ * The kernels exist as Java loops (score, classify) and as LLVM (llvm, to be bound to src/score.c). Features outside
+ * the calibrated range are clamped to +-127.
+ */
+public class QuantizedScorer {
+	final int dim;
+	final double[] scales;  // per column: x_j ~ scales[j] * q_j
+	final byte[] weights;   // quantized w_j * scales[j]
+	final float weightScale; // w_j * scales[j] ~ weightScale * weights[j]
+	final float bias;       // w0
+	final int threshold;    // smallest accumulator acc with w0 + weightScale * acc > 0
+
+	QuantizedScorer(double[] w, double[] scales) {
+		dim = w.length - 1;
+		// |sum| <= 127 * 127 * dim must fit into an int
+		if (dim > Integer.MAX_VALUE / (127 * 127)) throw new IllegalArgumentException(format("dimension %d too large for 32-bit accumulation", dim));
+		this.scales = scales;
+		this.bias = (float) w[0];
+
+		double max = 0.;
+		for (int j = 0; j<dim; j++) max = Math.max(max, Math.abs(w[j + 1] * scales[j]));
+		double t = max == 0. ? 1. : max / 127.;
+		weightScale = (float) t;
+		weights = new byte[dim];
+		for (int j = 0; j<dim; j++) weights[j] = clamp(w[j + 1] * scales[j] / t);
+		// (int) saturates, which is fine as |acc| <= 127 * 127 * dim < Integer.MAX_VALUE
+		threshold = (int) (Math.floor(-bias / (double) weightScale) + 1.);
+	}
+
+	// calibrate column scales for weights w (w0,w1,...,wD) on data (columns x1,...,xD and possibly y)
+	public static QuantizedScorer calibrate(double[] w, Dataset data) {
+		int dim = w.length - 1;
+		var scales = new double[dim];
+		for (int j = 0; j<dim; j++) {
+			double max = 0.;
+			for (int r = 0; r<data.rows(); r++) max = Math.max(max, Math.abs(data.get(r, j)));
+			scales[j] = max == 0. ? 1. : max / 127.;
+		}
+		return new QuantizedScorer(w, scales);
+	}
+
+	// nearest value in [-127, 127]
+	static byte clamp(double value) {
+		return (byte) Math.max(-127, Math.min(127, Math.round(value)));
+	}
+
+	// largest array length the JVM supports
+	static final int MAX_ARRAY = Integer.MAX_VALUE - 8;
+
+	// rows quantized (and scored) together by compare
+	static final int CHUNK = 1 << 16;
+
+	// quantize the features of data, row-major with dim bytes per row
+	public byte[] quantize(Dataset data) {
+		return quantize(data, 0, data.rows());
+	}
+
+	// same as above for rows from (inclusive) to to (exclusive), e.g., to quantize large datasets in chunks
+	public byte[] quantize(Dataset data, int from, int to) {
+		long size = (long) (to - from) * dim;
+		if (size > MAX_ARRAY)
+			throw new IllegalArgumentException(format("%d rows of %d features do not fit into one array, quantize in chunks", to - from, dim));
+		var q = new byte[(int) size];
+		for (int j = 0; j<dim; j++) {
+			double inverse = 1. / scales[j];
+			for (int r = from, i = j; r<to; r++, i += dim) {
+				q[i] = clamp(data.get(r, j) * inverse);
+			}
+		}
+		return q;
+	}
+
+	// dot product of the quantized weights with the row of q starting at base
+	// a plain scalar loop with int accumulation: whether C2 vectorizes it depends on the JDK and the CPU (the LLVM
+	// kernel vectorizes it explicitly)
+	private int dot(byte[] q, int base) {
+		int acc = 0;
+		for (int j = 0; j<dim; j++) {
+			acc += weights[j] * q[base + j];
+		}
+		return acc;
+	}
+
+	// score the first rows rows of quantized data q into out
+	public void score(byte[] q, int rows, float[] out) {
+		for (int r = 0, base = 0; r<rows; r++, base += dim) {
+			out[r] = 1f / (1f + (float) Math.exp(-(bias + weightScale * dot(q, base))));
+		}
+	}
+
+	// classify the first rows rows of quantized data q into out, i.e., out[r] = prediction > 0.5 without computing the
+	// prediction (same as score except for rows within rounding error of the decision boundary)
+	public void classify(byte[] q, int rows, boolean[] out) {
+		for (int r = 0, base = 0; r<rows; r++, base += dim) {
+			out[r] = dot(q, base) >= threshold;
+		}
+	}
+
+	// LLVM of the kernels:
+	//   void mll_score(int8_t* x, i64 rows, float* out)
+	//   void mll_classify(int8_t* x, i64 rows, int8_t* out)
+	// with the same semantics as score and classify (out 0 or 1), and exported constants mll_num_cols (= dim) and
+	// mll_scales (float[dim]) for quantizing the input. Each row is loaded as one <dim x i8> vector, widened,
+	// multiplied by the weights and reduced.
+	public void llvm(Writer writer) throws IOException {
+		var f = Precision.F32;
+		var wide = format("<%d x i32>", dim);
+
+		writer.append(format("declare float %s(float)\n", f.intrinsic("exp")));
+		writer.append(format("declare float %s(float, float, float)\n", f.intrinsic("fma")));
+		writer.append(format("declare i32 @llvm.vector.reduce.add.v%di32(%s)\n\n", dim, wide));
+		writer.append(format("@mll_num_cols = constant i64 %d\n", dim));
+		var scales = new StringBuilder();
+		for (int j = 0; j<dim; j++) scales.append(j == 0 ? "" : ", ").append("float ").append(f.literal(this.scales[j]));
+		writer.append(format("@mll_scales = constant [%d x float] [%s]\n\n", dim, scales));
+
+		llvmKernel(writer, "mll_score", "float", List.of(
+				"\t%_accf = sitofp i32 %_acc to float\n",
+				format("\t%%_eta = call float %s(float %%_accf, float %s, float %s)\n", f.intrinsic("fma"),
+						f.literal(weightScale), f.literal(bias)),
+				"\t%_neta = fneg float %_eta\n",
+				format("\t%%_exp = call float %s(float %%_neta)\n", f.intrinsic("exp")),
+				"\t%_den = fadd float 1.0, %_exp\n",
+				"\t%_pred = fdiv float 1.0, %_den\n"));
+		writer.append("\n");
+		llvmKernel(writer, "mll_classify", "i8", List.of(
+				format("\t%%_pos = icmp sge i32 %%_acc, %d\n", threshold),
+				"\t%_pred = zext i1 %_pos to i8\n"));
+	}
+
+	// one of the kernels above: loop over rows, compute the accumulator %_acc of each row, then the tail, which
+	// defines the %_pred of type outType that is stored
+	private void llvmKernel(Writer writer, String name, String outType, List<String> tail) throws IOException {
+		var vec = format("<%d x i8>", dim);
+		var wide = format("<%d x i32>", dim);
+		var weights = new StringBuilder();
+		for (int j = 0; j<dim; j++) weights.append(j == 0 ? "" : ", ").append("i32 ").append(this.weights[j]);
+
+		writer.append(format("define void @%s(i8* noundef noalias %%_x, i64 %%_rows, %s* noundef noalias %%_out) {\n", name, outType));
+		writer.append("entry:\n");
+		writer.append("\t%_norows = icmp eq i64 %_rows, 0\n");
+		writer.append("\tbr i1 %_norows, label %exit, label %row\n");
+
+		writer.append("row:\n");
+		writer.append("\t%_r = phi i64 [ 0, %entry ], [ %_r_next, %row ]\n");
+		writer.append(format("\t%%_base = mul i64 %%_r, %d\n", dim));
+		writer.append("\t%_p = getelementptr inbounds i8, i8* %_x, i64 %_base\n");
+		writer.append(format("\t%%_vp = bitcast i8* %%_p to %s*\n", vec));
+		writer.append(format("\t%%_q = load %s, %s* %%_vp, align 1\n", vec, vec));
+		writer.append(format("\t%%_qw = sext %s %%_q to %s\n", vec, wide));
+		writer.append(format("\t%%_prod = mul %s %%_qw, <%s>\n", wide, weights));
+		writer.append(format("\t%%_acc = call i32 @llvm.vector.reduce.add.v%di32(%s %%_prod)\n", dim, wide));
+		for (var line : tail) writer.append(line);
+		writer.append(format("\t%%_op = getelementptr inbounds %s, %s* %%_out, i64 %%_r\n", outType, outType));
+		writer.append(format("\tstore %s %%_pred, %s* %%_op\n", outType, outType));
+		writer.append("\t%_r_next = add i64 %_r, 1\n");
+		writer.append("\t%_more_rows = icmp ult i64 %_r_next, %_rows\n");
+		writer.append("\tbr i1 %_more_rows, label %row, label %exit\n");
+
+		writer.append("exit:\n");
+		writer.append("\tret void\n");
+		writer.append("}\n");
+	}
+
+	// accuracy of the quantized against the double-precision model on data (columns x1,...,xD,y)
+	public record Report(double maxDelta, double meanDelta, double agreement, double accuracy, double quantizedAccuracy) {
+		@Override public String toString() {
+			return format("max |delta| %.6f, mean |delta| %.6f, agreement %.4f, accuracy %.4f (double) vs %.4f (int8)",
+					maxDelta, meanDelta, agreement, accuracy, quantizedAccuracy);
+		}
+	}
+
+	// compare predictions of this scorer with the predictions of the double-precision model (quantizing CHUNK rows at
+	// a time, so data of any size can be compared)
+	public Report compare(Dataset data, double[] predictions) {
+		var out = new float[Math.min(CHUNK, data.rows())];
+		double max = 0., sum = 0.;
+		int agree = 0, correct = 0, quantizedCorrect = 0;
+		for (int from = 0; from<data.rows(); from += CHUNK) {
+			int to = Math.min(data.rows(), from + CHUNK);
+			score(quantize(data, from, to), to - from, out);
+			for (int r = from; r<to; r++) {
+				double delta = Math.abs(out[r - from] - predictions[r]);
+				max = Math.max(max, delta);
+				sum += delta;
+				boolean label = data.get(r, dim) > 0.5, predicted = predictions[r] > 0.5, quantized = out[r - from] > 0.5;
+				if (predicted == quantized) agree++;
+				if (predicted == label) correct++;
+				if (quantized == label) quantizedCorrect++;
+			}
+		}
+		int n = data.rows();
+		return new Report(max, sum / n, (double) agree / n, (double) correct / n, (double) quantizedCorrect / n);
+	}
+
+	// double-precision counterpart of score: the same single-threaded loop over row-major double features x with
+	// weights w (w0,w1,...,wD), used as the baseline for throughput per core
+	static void scoreDouble(double[] x, int rows, double[] w, double[] out) {
+		int dim = w.length - 1;
+		for (int r = 0, base = 0; r<rows; r++, base += dim) {
+			double eta = w[0];
+			for (int j = 0; j<dim; j++) {
+				eta += w[j + 1] * x[base + j];
+			}
+			out[r] = 1. / (1. + Math.exp(-eta));
+		}
+	}
+
+	// usage: QuantizedScorer [data.csv] [epochs]
+	// trains on data, then compares accuracy and single-threaded throughput of double-precision and quantized scoring
+	public static void main(String args[]) throws IOException {
+		var data = Dataset.readCsv(args.length > 0 ? args[0] : "out/data/data_2d_20.csv", Precision.F64);
+		int epochs = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int dim = data.cols() - 1;
+		var w = Sweep.run(data, List.of(new Sweep.Config(0.1, epochs, 1)), false).get(0).w();
+
+		var scorer = calibrate(w, data);
+		var predictions = Benchmark.score(data, w);
+		System.out.println(scorer.compare(data, predictions));
+
+		// throughput per core: both loops run on one thread over row-major features (unlike MemoryPlan.evalBatch,
+		// which scores chunks in parallel); repeat until at least 10^7 rows are scored (the first round warms up the JIT)
+		var x = new double[Math.toIntExact((long) data.rows() * dim)];
+		for (int r = 0; r<data.rows(); r++) {
+			for (int j = 0; j<dim; j++) x[r * dim + j] = data.get(r, j);
+		}
+		var doubleOut = new double[data.rows()];
+		var q = scorer.quantize(data);
+		var out = new float[data.rows()];
+		var decisions = new boolean[data.rows()];
+		int repeat = Math.max(1, 10_000_000 / data.rows());
+		for (int round = 0; round<2; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i<repeat; i++) scoreDouble(x, data.rows(), w, doubleOut);
+			double doubleSeconds = (System.nanoTime() - start) / 1e9;
+			start = System.nanoTime();
+			for (int i = 0; i<repeat; i++) scorer.score(q, data.rows(), out);
+			double quantizedSeconds = (System.nanoTime() - start) / 1e9;
+			start = System.nanoTime();
+			for (int i = 0; i<repeat; i++) scorer.classify(q, data.rows(), decisions);
+			double classifySeconds = (System.nanoTime() - start) / 1e9;
+			long scored = (long) repeat * data.rows();
+			System.out.println(format("single thread: double %.0f rows/sec, int8 %.0f rows/sec (%.1fx), int8 decisions only %.0f rows/sec (%.1fx)",
+					scored / doubleSeconds, scored / quantizedSeconds, doubleSeconds / quantizedSeconds,
+					scored / classifySeconds, doubleSeconds / classifySeconds));
+		}
+		int agree = 0;
+		for (int r = 0; r<data.rows(); r++) if (decisions[r] == out[r] > 0.5f) agree++;
+		System.out.println(format("classify agrees with score on %d of %d rows", agree, data.rows()));
+
+		var name = "logreg-score-q8-" + dim;
+		Files.createDirectories(Paths.get("out/llvm"));
+		try (var writer = Files.newBufferedWriter(Paths.get("out/llvm", name + ".ll"))) {
+			scorer.llvm(writer);
+		}
+		System.out.println("Saved LLVM: out/llvm/" + name + ".ll (bind to src/score.c with Util.clang)");
+	}
+}
@@ -0,0 +1,195 @@
+package mll;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.DoubleFunction;
+
+/** A hyperparameter sweep for logistic regression.
+ *
+ * All configurations are trained concurrently, epoch by epoch, on one read-only Dataset and one MemoryPlan of the
+ * loss gradient; each run only owns its weights and a MemoryPlan.Context. With early stopping, the sweep uses
+ * successive halving: after epochs 1, 2, 4, 8, ..., the worse half of the runs still training (by average loss of the
+ * last epoch) is stopped.
+ */
+public class Sweep {
+	// a configuration: step size, number of epochs and number of examples per gradient step
+	public record Config(double epsilon, int epochs, int batchSize) {}
+
+	// result of a configuration: final weights, average loss per completed epoch, whether it was stopped early
+	public record Result(Config config, double[] w, double[] losses, boolean stopped) {
+		public double loss() { return losses.length == 0 ? Double.NaN : losses[losses.length - 1]; }
+	}
+
+	// all combinations of the given values
+	public static List<Config> grid(double[] epsilons, int[] epochs, int[] batchSizes) {
+		var configs = new ArrayList<Config>();
+		for (var epsilon : epsilons) {
+			for (var e : epochs) {
+				for (var batchSize : batchSizes) {
+					configs.add(new Config(epsilon, e, batchSize));
+				}
+			}
+		}
+		return configs;
+	}
+
+	// n random configurations, step sizes are drawn log-uniformly from [minEpsilon, maxEpsilon]
+	public static List<Config> random(int n, double minEpsilon, double maxEpsilon, int[] epochs, int[] batchSizes, long seed) {
+		var random = new SplittableRandom(seed);
+		var configs = new ArrayList<Config>();
+		for (int i = 0; i<n; i++) {
+			double epsilon = Math.exp(random.nextDouble(Math.log(minEpsilon), Math.log(maxEpsilon)));
+			configs.add(new Config(epsilon, epochs[random.nextInt(epochs.length)], batchSizes[random.nextInt(batchSizes.length)]));
+		}
+		return configs;
+	}
+
+	// train all configurations on data (columns x1,...,xD,y), results are sorted by final loss
+	public static List<Result> run(Dataset data, List<Config> configs, boolean earlyStopping) throws IOException {
+		return run(data, configs, earlyStopping, Optimizer.Sgd::new);
+	}
+
+	// same as above, but each run updates its weights with its own optimizer, created for the run's step size
+	public static List<Result> run(Dataset data, List<Config> configs, boolean earlyStopping, DoubleFunction<Optimizer> optimizer) throws IOException {
+		int dim = data.cols() - 1;
+		var model = new Model(LogReg.gradGraph(dim, data.precision()), dim);
+
+		var runs = configs.stream().map(config -> new Run(config, model, optimizer.apply(config.epsilon()))).toList();
+		int maxEpochs = configs.stream().mapToInt(Config::epochs).max().orElse(0);
+		for (int epoch = 0; epoch<maxEpochs; epoch++) {
+			final int e = epoch;
+			var active = runs.stream().filter(run -> !run.stopped && e < run.config.epochs()).toList();
+			active.parallelStream().forEach(run -> run.epoch(data));
+
+			// successive halving at epochs 1, 2, 4, ...
+			boolean rung = Integer.bitCount(epoch + 1) == 1;
+			if (earlyStopping && rung && active.size() > 1) {
+				var ranked = new ArrayList<>(active);
+				ranked.sort(Comparator.comparingDouble(Run::loss));
+				for (var run : ranked.subList((ranked.size() + 1) / 2, ranked.size())) {
+					if (run.losses.size() < run.config.epochs()) run.stopped = true;
+				}
+			}
+		}
+
+		var results = new ArrayList<Result>();
+		for (var run : runs) {
+			var losses = run.losses.stream().mapToDouble(Double::doubleValue).toArray();
+			results.add(new Result(run.config, run.w, losses, run.stopped));
+		}
+		results.sort(Comparator.comparingDouble(Result::loss));
+		return results;
+	}
+
+	// format results as a table
+	public static String table(List<Result> results) {
+		var table = new StringBuilder(format("%-10s %6s %6s %8s %10s  %s%n", "epsilon", "epochs", "batch", "trained", "avgLoss", "weights"));
+		for (var result : results) {
+			var config = result.config();
+			table.append(format("%-10.4g %6d %6d %8s %10.4f  %s%n", config.epsilon(), config.epochs(), config.batchSize(),
+					result.losses().length + (result.stopped() ? "*" : ""), result.loss(), Arrays.toString(result.w())));
+		}
+		return table.toString();
+	}
+
+	// the shared, read-only part of all runs: the plan of the loss gradient and where its inputs and outputs are
+	static class Model {
+		final MemoryPlan plan;
+		final int[] column; // column of data providing the i-th input of plan, or -1
+		final int[] weight; // weight providing the i-th input of plan, or -1
+		final int[] grad;   // position of the partial derivative w.r.t. w_i in the outputs of plan
+
+		// dout must only have the free variables x1,...,xD, y and w0,...,wD (as LogReg.gradGraph(dim))
+		Model(Grad dout, int dim) {
+			plan = MemoryPlan.of(dout);
+			var vars = plan.vars();
+			column = new int[vars.length];
+			weight = new int[vars.length];
+			for (int i = 0; i<vars.length; i++) {
+				var name = vars[i].name();
+				int x = index(name, "x", 1, dim), w = index(name, "w", 0, dim);
+				column[i] = name.equals("y") ? dim : x >= 0 ? x - 1 : -1;
+				weight[i] = w;
+				if (column[i] < 0 && weight[i] < 0)
+					throw new IllegalArgumentException(format("unknown variable %s in the loss gradient (expected x1..x%d, y, w0..w%d)", name, dim, dim));
+			}
+			grad = new int[dim + 1];
+			for (int i = 0; i<=dim; i++) {
+				grad[i] = dout.index("w"+i);
+				if (grad[i] < 0) throw new IllegalArgumentException(format("no partial derivative w.r.t. w%d in the loss gradient", i));
+			}
+		}
+
+		// k if name is prefix followed by a number k in [min, max], -1 otherwise
+		static int index(String name, String prefix, int min, int max) {
+			if (!name.matches(prefix + "\\d{1,9}")) return -1;
+			int k = Integer.parseInt(name.substring(prefix.length()));
+			return k >= min && k <= max ? k : -1;
+		}
+	}
+
+	// a single configuration being trained
+	static class Run {
+		final Config config;
+		final Model model;
+		final MemoryPlan.Context context;
+		final Optimizer optimizer;
+		final int[] identity; // dw is contiguous
+		final double[] w, dw, values;
+		final ArrayList<Double> losses = new ArrayList<>();
+		boolean stopped = false;
+
+		Run(Config config, Model model, Optimizer optimizer) {
+			this.config = config;
+			this.model = model;
+			this.context = model.plan.newContext();
+			this.optimizer = optimizer;
+			this.identity = Optimizer.identity(model.grad.length);
+			this.w = new double[model.grad.length]; // initially all 0
+			this.dw = new double[w.length];
+			this.values = new double[model.column.length];
+		}
+
+		// average loss of the last epoch
+		double loss() { return losses.get(losses.size() - 1); }
+
+		// one pass through data with (mini-batch) gradient descent
+		void epoch(Dataset data) {
+			double totalLoss = 0.;
+			int inBatch = 0;
+			for (int r = 0; r<data.rows(); r++) {
+				for (int i = 0; i<values.length; i++) {
+					values[i] = model.column[i] >= 0 ? data.get(r, model.column[i]) : w[model.weight[i]];
+				}
+				var out = context.eval(values);
+				totalLoss += out[0];
+				for (int i = 0; i<w.length; i++) {
+					dw[i] += out[model.grad[i]];
+				}
+
+				// optimizer step with the average gradient of the batch
+				if (++inBatch == config.batchSize() || r == data.rows() - 1) {
+					optimizer.step(w, dw, identity, inBatch);
+					Arrays.fill(dw, 0.);
+					inBatch = 0;
+				}
+			}
+			losses.add(totalLoss / data.rows());
+		}
+	}
+
+	// usage: Sweep <data.csv> [optimizer]
+	public static void main(String args[]) throws IOException {
+		var data = Dataset.readCsv(args.length > 0 ? args[0] : "out/data/data_2d_20.csv", Precision.F64);
+		var optimizer = args.length > 1 ? args[1] : "sgd";
+		var configs = grid(new double[] { 0.01, 0.03, 0.1, 0.3, 1. }, new int[] { 50, 100 }, new int[] { 1, 4 });
+		var results = run(data, configs, true, epsilon -> Optimizer.of(optimizer, epsilon));
+		System.out.print(table(results));
+	}
+}
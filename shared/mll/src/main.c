@@ -3,9 +3,16 @@
 #include <stdlib.h>
 #include <string.h>
 
-void mll(double* restrict in, double* restrict out);
+// compile with -DMLL_F32 for code generated with Precision.F32
+#ifdef MLL_F32
+typedef float real;
+#else
+typedef double real;
+#endif
 
-void print_array(int n, double* a) {
+void mll(real* restrict in, real* restrict out);
+
+void print_array(int n, real* a) {
     const char* sep = "";
     printf("(");
     for (int i = 0; i != n; ++i) {
@@ -18,8 +25,8 @@ void print_array(int n, double* a) {
 int main(int argc, char** argv) {
     bool backwards = false;
 
-    double inputs[argc];
-    memset(inputs, 0, sizeof(double) * argc);
+    real inputs[argc];
+    memset(inputs, 0, sizeof(real) * argc);
 
     int num_ins = 0;
     for (int i = 1; i != argc; ++i) {
@@ -31,8 +38,8 @@ int main(int argc, char** argv) {
     }
 
     size_t num_outs = backwards ? num_ins + 1 : 1;
-    double outputs[num_outs];
-    memset(outputs, 0, sizeof(double) * num_outs);
+    real outputs[num_outs];
+    memset(outputs, 0, sizeof(real) * num_outs);
 
     printf("mll");
     print_array(num_ins, inputs);
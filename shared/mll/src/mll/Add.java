@@ -13,6 +13,14 @@ public class Add extends BinOp {
     // Smart constructor
     public static Op c(Op x, Op y) {
         var dag = x.dag();
+        if (dag.doRewrite()) {
+            if (Lit.is(x, 0.)) return y;
+            if (Lit.is(y, 0.)) return x;
+
+            // a * b + c is computed with a single rounding
+            if (x instanceof Mul m) return Fma.c(m.lhs(), m.rhs(), y);
+            if (y instanceof Mul m) return Fma.c(m.lhs(), m.rhs(), x);
+        }
         return dag.unify(new Add(x, y));
     }
 
@@ -25,6 +33,13 @@ public class Add extends BinOp {
     	return inVals[0] + inVals[1];
     }
 
+    // Specialized batch loop (see Op#evalBatch_)
+    @Override protected void evalBatch_(double[][] inCols, double[] out) {
+        var l = inCols[0];
+        var r = inCols[1];
+        for (int i = 0, e = out.length; i != e; ++i) out[i] = l[i] + r[i];
+    }
+
     // Required implementation (see Op#diff)
     @Override protected Op diff(int inputIdx) { return lit1(); }
 
@@ -33,7 +48,7 @@ public class Add extends BinOp {
         var l = lhs().llvm(map, writer);
         var r = rhs().llvm(map, writer);
         var x = format("%%_%d", id());
-        writer.append(format("\t%s = fadd double %s, %s\n", x, l, r));
+        writer.append(format("\t%s = fadd %s %s, %s\n", x, llvmType(), l, r));
         return x;
     }
 }
@@ -0,0 +1,128 @@
+package mll;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/** A checkpointing policy to bound memory while evaluating a Grad (see Op#eval(HashMap, Checkpoints)).
+ *
+ * Normally every forward value stays in the env until the end, as the partial derivatives may use any of them. With
+ * checkpointing, only selected forward operators (the checkpoints) keep their values. All other forward values are
+ * recomputed from the nearest checkpoints when a partial derivative needs them, trading computation for memory.
+ * Recomputed values are held in a scratch cache that is dropped whenever it grows beyond the budget.
+ */
+public class Checkpoints {
+    /** Maximum number of forward values to keep, or 0 to keep sqrt(N) of N forward operators. */
+    private final int budget_;
+
+    private Checkpoints(int budget) { budget_ = budget; }
+
+    /** Keep about sqrt(N) of N forward values. */
+    public static Checkpoints sqrt() { return new Checkpoints(0); }
+
+    /** Keep at most (about) budget forward values. */
+    public static Checkpoints budget(int budget) {
+        if (budget < 1) throw new IllegalArgumentException("budget must be positive");
+        return new Checkpoints(budget);
+    }
+
+    /** Number of values to keep for n forward operators. */
+    int limit(int n) { return budget_ > 0 ? budget_ : Math.max(1, (int) Math.ceil(Math.sqrt(n))); }
+
+    /** Return the forward operators of root, i.e., all operators the results of a Grad depend on, or all operators
+     * of other roots. */
+    static HashSet<Op> forward(Op root) {
+        var forward = new HashSet<Op>();
+        var order   = new ArrayList<Op>();
+        if (root instanceof Grad grad) {
+            for (int r = 0; r != grad.numResults(); ++r) grad.input(r).topo(forward, order);
+        } else {
+            root.topo(forward, order);
+        }
+        return forward;
+    }
+
+    /** Select every k-th forward operator (in topological order) as a checkpoint such that at most limit(N) are
+     * selected. Variables are always kept (their values are given) and literals never (they are free to compute). */
+    HashSet<Op> select(Op[] order, HashSet<Op> forward) {
+        var candidates = new ArrayList<Op>();
+        for (var op : order)
+            if (forward.contains(op) && !(op instanceof Var) && !(op instanceof Lit)) candidates.add(op);
+
+        int n = candidates.size();
+        int k = Math.max(1, (n + limit(n) - 1) / limit(n));
+        var checkpoints = new HashSet<Op>();
+        for (int i = k - 1; i < n; i += k) checkpoints.add(candidates.get(i));
+        return checkpoints;
+    }
+
+    /** Evaluate root with this policy. env must provide the values of all free variables; it receives the values of
+     * the checkpoints, the partial derivatives and root. Other values are only held while needed: backward values are
+     * removed from env after their last use (as in MemoryPlan), recomputed forward values are held in scratch. */
+    double eval(Op root, HashMap<Op, Double> env) {
+        var order       = root.topo();
+        var forward     = forward(root);
+        var checkpoints = select(order, forward);
+        var scratch     = new HashMap<Op, Double>();
+        int limit       = limit(forward.size());
+
+        // position of each operator in order and of the last use of its value
+        var pos     = new HashMap<Op, Integer>();
+        var lastUse = new HashMap<Op, Integer>();
+        for (int i = 0; i != order.length; ++i) {
+            pos.put(order[i], i);
+            for (var input : order[i].inputs()) lastUse.put(input, i);
+        }
+        if (root instanceof Grad) for (var output : root.inputs()) lastUse.put(output, Integer.MAX_VALUE);
+
+        for (int i = 0; i != order.length; ++i) {
+            var op = order[i];
+            if (!env.containsKey(op)) {
+                // forward operators that are no checkpoint are only computed on demand
+                if (forward.contains(op) && !checkpoints.contains(op) && op != root) continue;
+                env.put(op, compute(op, env, scratch, pos, limit));
+            }
+
+            // backward values are only used by later backward operators (and root)
+            for (var input : op.inputs()) {
+                if (forward.contains(input) || input instanceof Var) continue;
+                if (lastUse.get(input) == i) env.remove(input);
+            }
+        }
+        return env.get(root);
+    }
+
+    // internal: value of op given the values in env and scratch; missing forward values are recomputed in topological
+    // order (and cached in scratch, which is dropped first if it grew beyond limit)
+    private static double compute(Op op, HashMap<Op, Double> env, HashMap<Op, Double> scratch, HashMap<Op, Integer> pos, int limit) {
+        if (scratch.size() > limit) scratch.clear();
+
+        // collect the missing values op depends on
+        var missing = new ArrayList<Op>();
+        var seen    = new HashSet<Op>();
+        var stack   = new ArrayDeque<Op>(Arrays.asList(op.inputs()));
+        while (!stack.isEmpty()) {
+            var input = stack.pop();
+            if (env.containsKey(input) || scratch.containsKey(input) || !seen.add(input)) continue;
+            missing.add(input);
+            for (var next : input.inputs()) stack.push(next);
+        }
+        missing.sort(Comparator.comparingInt(pos::get));
+
+        for (var input : missing) scratch.put(input, apply(input, env, scratch));
+        return apply(op, env, scratch);
+    }
+
+    // internal: evaluate op on input values held in env or scratch
+    private static double apply(Op op, HashMap<Op, Double> env, HashMap<Op, Double> scratch) {
+        var inVals = new double[op.numInputs()];
+        for (int i = 0, e = op.numInputs(); i != e; ++i) {
+            var value = env.get(op.input(i));
+            inVals[i] = value != null ? value : scratch.get(op.input(i));
+        }
+        return op.dag().precision().round(op.eval_(inVals));
+    }
+}
@@ -1,6 +1,8 @@
 package mll;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 
 /** A compute graph. */
 public class DAG {
@@ -11,6 +13,9 @@ public class DAG {
     /** Flag to indicate whether smart constructors should rewrite/optimize expressions */
     private boolean doRewrite_;
 
+    /** Precision of literals, evaluation and generated code. */
+    private final Precision precision_;
+
     /** All operators in this DAG. */
     private HashMap<Op, Op> ops_ = new HashMap<Op, Op>();
 
@@ -19,10 +24,21 @@ public class DAG {
     }
 
     public DAG(boolean doRewrite) {
+    	this(doRewrite, Precision.F64);
+    }
+
+    public DAG(Precision precision) {
+    	this(true, precision);
+    }
+
+    public DAG(boolean doRewrite, Precision precision) {
     	this.doRewrite_ = doRewrite;
+    	this.precision_ = precision;
     }
 
     public boolean doRewrite() { return doRewrite_; }
+
+    public Precision precision() { return precision_; }
     
     /** Start over and forget everything. */
     public void clear() {
@@ -30,6 +46,19 @@ public class DAG {
         ops_.clear();
     }
 
+    /** Number of operators in this DAG. */
+    public int size() { return ops_.size(); }
+
+    /** Forget all operators that are not reachable from roots (e.g., left behind by rewrites), so that later
+     * operators are only unified with live ones. Returns the number of forgotten operators. */
+    public int prune(Op... roots) {
+        var live = new HashSet<Op>();
+        for (var root : roots) root.topo(live, new ArrayList<Op>());
+        int before = ops_.size();
+        ops_.keySet().retainAll(live);
+        return before - ops_.size();
+    }
+
     /** Create or return the Op for the variable with the given name.  */
     public Var var(String name) { return Var.c(this,  name); }
 
@@ -56,12 +85,22 @@ public class DAG {
     /** Create or return the Op for the literal with value 2. */
     public Lit lit2() { return lit(2.f); }
 
+    /** Return an operator that computes all results and the partial derivatives of each of them w.r.t. each of their
+     * free variables (see Grad). Cheaper than calling Op#backwards() per result when results share operators. */
+    public Grad backwards(Op... results) { return Op.backwards(results); }
+
     /** Produce an unused ID for a new operator. */
     int nextID() { return nextId_++; }
 
     /** Unify the given operator with any existing operators. Intuitively, if there
-     * is an equivalent operator in the tree already, return that one. */
+     * is an equivalent operator in the tree already, return that one. When rewriting, an operator whose inputs
+     * are all literals is replaced by the literal of its value (constant folding). */
     Op unify(Op key) {
+        var value = doRewrite_ ? key.constant() : null;
+        if (value != null) {
+            nextId_--; // use again
+            return lit(value);
+        }
         if (ops_.containsKey(key)) {
             nextId_--; // use again
             return ops_.get(key);
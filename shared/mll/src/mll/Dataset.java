@@ -0,0 +1,116 @@
+package mll;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+/** A table of numbers held in memory column by column, e.g., the examples (x1,...,xD,y) of LogReg.
+ *
+ * Columns are primitive arrays of the dataset's precision: F32 datasets take half the memory of F64 datasets, and a
+ * column can be handed to batch evaluation (see Op#evalBatch) without boxing.
+ */
+public class Dataset {
+    /** Precision with which values are stored. */
+    private final Precision  precision_;
+
+    /** Number of rows. */
+    private final int        rows_;
+
+    /** Columns if the precision is F64, null otherwise. */
+    private final double[][] doubles_;
+
+    /** Columns if the precision is F32, null otherwise. */
+    private final float[][]  floats_;
+
+    /** Create a dataset from the given columns (which are not copied, all of the same length). */
+    public Dataset(double[][] columns) {
+        precision_ = Precision.F64;
+        rows_      = columns.length == 0 ? 0 : columns[0].length;
+        doubles_   = columns;
+        floats_    = null;
+    }
+
+    /** Same as above for F32 columns. */
+    public Dataset(float[][] columns) {
+        precision_ = Precision.F32;
+        rows_      = columns.length == 0 ? 0 : columns[0].length;
+        doubles_   = null;
+        floats_    = columns;
+    }
+
+    /** Create a dataset from the given rows (e.g., obtained from LogReg.readCsv). */
+    public static Dataset of(List<List<Double>> records, Precision precision) {
+        int cols    = records.isEmpty() ? 0 : records.get(0).size();
+        var columns = new double[cols][records.size()];
+        for (int r = 0; r != records.size(); ++r) {
+            var record = records.get(r);
+            for (int c = 0; c != cols; ++c) columns[c][r] = record.get(c);
+        }
+        return of(columns, precision);
+    }
+
+    // internal: convert to precision if necessary
+    private static Dataset of(double[][] columns, Precision precision) {
+        if (precision == Precision.F64) return new Dataset(columns);
+        var floats = new float[columns.length][];
+        for (int c = 0; c != columns.length; ++c) {
+            floats[c] = new float[columns[c].length];
+            for (int r = 0; r != floats[c].length; ++r) floats[c][r] = (float) columns[c][r];
+        }
+        return new Dataset(floats);
+    }
+
+    /** Read a CSV file with one row per line (e.g., x1,x2,...,xD,y) without going through boxed rows. */
+    public static Dataset readCsv(String file, Precision precision) throws IOException {
+        int rows = 0;
+        double[][] columns = null;
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                var values = line.split(",");
+                if (columns == null) columns = new double[values.length][1024];
+                if (values.length != columns.length)
+                    throw new IOException("Line " + (rows + 1) + " of " + file + " has " + values.length + " instead of " + columns.length + " values");
+                if (rows == columns[0].length)
+                    for (int c = 0; c != columns.length; ++c) columns[c] = Arrays.copyOf(columns[c], 2 * rows);
+                for (int c = 0; c != columns.length; ++c) columns[c][rows] = Double.parseDouble(values[c]);
+                ++rows;
+            }
+        }
+        if (columns == null) return new Dataset(new double[0][]);
+        for (int c = 0; c != columns.length; ++c) columns[c] = Arrays.copyOf(columns[c], rows);
+        return of(columns, precision);
+    }
+
+    public Precision precision() { return precision_; }
+    public int rows() { return rows_; }
+    public int cols() { return doubles_ != null ? doubles_.length : floats_.length; }
+
+    /** Value in the given row and column. */
+    public double get(int row, int col) { return doubles_ != null ? doubles_[col][row] : floats_[col][row]; }
+
+    /** Values of the given column as doubles (the column itself for F64 datasets, a copy otherwise). For F32 datasets,
+     * prefer floatColumn with MemoryPlan#evalBatch(float[]...), which avoids the double-sized copy. */
+    public double[] column(int col) {
+        if (doubles_ != null) return doubles_[col];
+        var column = new double[rows_];
+        for (int r = 0; r != rows_; ++r) column[r] = floats_[col][r];
+        return column;
+    }
+
+    /** Values of the given column of an F32 dataset (not copied). */
+    public float[] floatColumn(int col) {
+        if (floats_ == null) throw new UnsupportedOperationException("Not an F32 dataset");
+        return floats_[col];
+    }
+
+    /** Copy the values of the given row into row (which must have cols() entries) and return it. */
+    public double[] row(int row, double[] values) {
+        for (int c = 0, e = cols(); c != e; ++c) values[c] = get(row, c);
+        return values;
+    }
+}
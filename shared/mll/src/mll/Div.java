@@ -0,0 +1,54 @@
+package mll;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+
+/** Operator to divide the first input by the second. */
+public class Div extends BinOp {
+    Div(Op lhs, Op rhs) { super(lhs, rhs); }
+
+    // Smart constructor
+    public static Op c(Op x, Op y) {
+        var dag = x.dag();
+        if (dag.doRewrite()) {
+            // 1 / (1 + exp(t)) = sigmoid(-t)
+            if (Lit.is(x, 1.) && y instanceof Add add) {
+                var e = Lit.is(add.lhs(), 1.) ? add.rhs() : Lit.is(add.rhs(), 1.) ? add.lhs() : null;
+                if (e instanceof Exp exp) return Sigmoid.c(Neg.c(exp.arg()));
+            }
+        }
+        return dag.unify(new Div(x, y));
+    }
+
+    // Custom operator string
+    @Override public String opString() { return "/"; }
+
+    // Required implementation (see Op#eval_)
+    @Override protected double eval_(double[] inVals) {
+        return inVals[0] / inVals[1];
+    }
+
+    // Specialized batch loop (see Op#evalBatch_)
+    @Override protected void evalBatch_(double[][] inCols, double[] out) {
+        var l = inCols[0];
+        var r = inCols[1];
+        for (int i = 0, e = out.length; i != e; ++i) out[i] = l[i] / r[i];
+    }
+
+    // Required implementation (see Op#diff)
+    @Override protected Op diff(int inputIdx) {
+        return inputIdx == 0 ? lit1().div(rhs()) : lhs().neg().div(rhs().mul(rhs()));
+    }
+
+    // Required implementation (see Op#llvm_)
+    @Override protected String llvm_(HashMap<Op, String> map, Writer writer) throws IOException {
+        var l = lhs().llvm(map, writer);
+        var r = rhs().llvm(map, writer);
+        var x = format("%%_%d", id());
+        writer.append(format("\t%s = fdiv %s %s, %s\n", x, llvmType(), l, r));
+        return x;
+    }
+}
@@ -0,0 +1,432 @@
+package mll;
+
+import static java.lang.String.format;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.ToDoubleFunction;
+
+/** Graph optimization by equality saturation.
+ *
+ * An e-graph represents many equivalent graphs at once: it holds e-classes of equivalent operators (e-nodes), whose
+ * inputs are e-classes rather than operators. Starting from a compute graph, rewrite rules (commutativity,
+ * associativity, factoring, fused multiply-add, negation, identities, exp/log identities and constant folding) add
+ * equivalent forms until no rule adds anything new (saturation) or the node or time limit is reached. Then, the
+ * cheapest operator of each e-class is extracted under a per-operator cost model and the result is rebuilt in the DAG
+ * of the original graph through the smart constructors.
+ *
+ * Rules are scheduled with exponential backoff: a rule matching more than its limit in an iteration is not applied
+ * and is banned for a few iterations, after which its limit and the length of the next ban double. Thus rules that
+ * match everywhere (commutativity and associativity on long sums) cannot use up the node limit before the other rules
+ * had a chance to apply. Distributivity is only applied in the factoring direction (a*b + a*d to a*(b + d)), as
+ * expanding products only grows the graph.
+ *
+ * Unlike the local rewrites of PassManager, this finds forms that are only cheaper after several steps, e.g.,
+ * a*b + a*c = a*(b + c) after reordering the products of the chain rule. The optimized graph is only returned if it
+ * is cheaper than the original (see cost).
+ */
+public class EGraph {
+    public static final int  DEFAULT_MAX_NODES  = 20000;
+    public static final long DEFAULT_MAX_MILLIS = 2000;
+
+    /** Maximum number of rewrite iterations. */
+    static final int MAX_ITERATIONS = 30;
+
+    /** Initial number of matches per iteration above which a rule is banned, and initial length of a ban. */
+    static final int MATCH_LIMIT = 1000;
+    static final int BAN_LENGTH  = 2;
+
+    /** Rewrite rules (see search), scheduled separately. */
+    enum Rule {
+        FOLD, COMMUTE, ASSOCIATE, ADD_ZERO, FMA, FACTOR, ADD_NEG, MUL_ONE, MUL_ZERO, MUL_MINUS_ONE, MUL_NEG, EXP_MUL,
+        EXPAND_FMA, EXPAND_SUB, NEG_NEG, DIV_ONE, DIV_EXP, LOG_EXP
+    }
+
+    // internal: a match of a rule, to be applied after all e-classes are searched
+    record Match(Rule rule, Runnable apply) {}
+
+    // internal: an operator whose inputs are e-classes; value and name are the payload of literals and variables
+    static final class ENode {
+        final Class<?> kind;
+        final double   value;
+        final String   name;
+        final int[]    kids;
+        final int      hash;
+
+        ENode(Class<?> kind, double value, String name, int... kids) {
+            this.kind  = kind;
+            this.value = value;
+            this.name  = name;
+            this.kids  = kids;
+            this.hash  = Objects.hash(kind, value, name, Arrays.hashCode(kids));
+        }
+
+        boolean is(Class<?> k) { return kind == k; }
+
+        @Override public int hashCode() { return hash; }
+
+        @Override public boolean equals(Object obj) {
+            return obj instanceof ENode n && kind == n.kind && Double.compare(value, n.value) == 0
+                    && Objects.equals(name, n.name) && Arrays.equals(kids, n.kids);
+        }
+    }
+
+    private final int                         maxNodes_;
+    private final long                        maxMillis_;
+    private final ToDoubleFunction<Class<?>>  cost_;
+
+    // union-find over e-class ids, hash-consing of canonical e-nodes, e-nodes and constant value of each e-class
+    private final ArrayList<Integer>            parent_    = new ArrayList<Integer>();
+    private HashMap<ENode, Integer>             memo_      = new HashMap<ENode, Integer>();
+    private final HashMap<Integer, ArrayList<ENode>> classes_ = new HashMap<Integer, ArrayList<ENode>>();
+    private final HashMap<Integer, Double>      constants_ = new HashMap<Integer, Double>();
+
+    /** Non-rewriting DAG to fold constants. */
+    private DAG scratch_;
+
+    // statistics of the last run
+    private int    iterations_;
+    private String stop_ = "";
+    private double costBefore_, costAfter_;
+
+    public EGraph() { this(DEFAULT_MAX_NODES, DEFAULT_MAX_MILLIS, EGraph::defaultCost); }
+
+    public EGraph(int maxNodes, long maxMillis, ToDoubleFunction<Class<?>> cost) {
+        maxNodes_  = maxNodes;
+        maxMillis_ = maxMillis;
+        cost_      = cost;
+    }
+
+    /** Optimize root with the default limits and cost model. */
+    public static Op optimize(Op root) { return new EGraph().run(root); }
+
+    /** Same as above for a Grad. */
+    public static Grad optimize(Grad root) { return (Grad) optimize((Op) root); }
+
+    /** Cost of an operator by kind: leaves are free, arithmetic costs 1 (a fused multiply-add as much as a single
+     * addition), division and transcendental functions cost more. */
+    public static double defaultCost(Class<?> kind) {
+        if (kind == Lit.class || kind == Var.class) return 0.;
+        if (kind == Add.class || kind == Sub.class || kind == Mul.class || kind == Neg.class || kind == Fma.class) return 1.;
+        if (kind == Div.class) return 4.;
+        if (kind == Exp.class || kind == Log.class) return 8.;
+        if (kind == Sigmoid.class) return 12.;
+        if (kind == Softplus.class || kind == LogSigmoid.class || kind == LogSumExp.class) return 16.;
+        return 8.;
+    }
+
+    /** Total cost of all operators of root (each shared operator counted once). */
+    public double cost(Op root) {
+        double cost = 0.;
+        var order = root.topo();
+        for (var op : order) if (!(op == root && root instanceof Grad)) cost += cost_.applyAsDouble(op.getClass());
+        return cost;
+    }
+
+    /** Return the cheapest equivalent of root found (root itself if nothing cheaper was found). For a Grad, all
+     * inputs are optimized together. */
+    public Op run(Op root) {
+        long deadline = System.nanoTime() + maxMillis_ * 1_000_000L;
+        parent_.clear();
+        memo_.clear();
+        classes_.clear();
+        constants_.clear();
+        scratch_    = new DAG(false, root.dag().precision());
+        costBefore_ = cost(root);
+
+        // add the graph
+        var roots = root instanceof Grad ? root.inputs() : new Op[] { root };
+        var ids   = new HashMap<Op, Integer>();
+        var done  = new HashSet<Op>();
+        var order = new ArrayList<Op>();
+        for (var r : roots) r.topo(done, order);
+        for (var op : order) {
+            if (op instanceof Grad) throw new IllegalArgumentException("Grad can only be the root: " + op);
+            var kids = new int[op.numInputs()];
+            for (int i = 0; i != kids.length; ++i) kids[i] = ids.get(op.input(i));
+            var value = op instanceof Lit lit ? lit.get() : 0.;
+            var name  = op instanceof Var var ? var.name() : null;
+            ids.put(op, add(new ENode(op.getClass(), value, name, kids)));
+        }
+        rebuild();
+
+        // saturate
+        stop_ = "iteration limit";
+        var rules       = Rule.values();
+        var bannedUntil = new int[rules.length];
+        var timesBanned = new int[rules.length];
+        for (iterations_ = 0; iterations_ != MAX_ITERATIONS; ++iterations_) {
+            var matches = new ArrayList<Match>();
+            for (var entry : classes_.entrySet()) {
+                int c = entry.getKey();
+                for (var n : entry.getValue()) search(c, n, matches);
+            }
+
+            // ban rules with too many matches (backoff)
+            var count = new int[rules.length];
+            for (var match : matches) ++count[match.rule().ordinal()];
+            boolean banned = false;
+            for (int r = 0; r != rules.length; ++r) {
+                if (bannedUntil[r] <= iterations_ && count[r] > MATCH_LIMIT << timesBanned[r]) {
+                    bannedUntil[r] = iterations_ + (BAN_LENGTH << timesBanned[r]);
+                    ++timesBanned[r];
+                }
+                banned |= bannedUntil[r] > iterations_;
+            }
+
+            int nodes = memo_.size(), classes = classes_.size();
+            for (var match : matches) {
+                if (bannedUntil[match.rule().ordinal()] > iterations_) continue;
+                match.apply().run();
+                if (memo_.size() > maxNodes_ || System.nanoTime() > deadline) break;
+            }
+            rebuild();
+
+            // not saturated while rules are banned, which might still add something
+            if (memo_.size() == nodes && classes_.size() == classes && !banned) { stop_ = "saturated"; break; }
+            if (memo_.size() > maxNodes_) { stop_ = "node limit"; break; }
+            if (System.nanoTime() > deadline) { stop_ = "time limit"; break; }
+        }
+
+        // extract the cheapest graph and keep it if it is cheaper
+        var best   = extract();
+        var dag    = root.dag();
+        var built  = new HashMap<Integer, Op>();
+        var inputs = new Op[roots.length];
+        for (int i = 0; i != roots.length; ++i) inputs[i] = build(find(ids.get(roots[i])), best, built, dag);
+        var res = root instanceof Grad ? root.rebuild(dag, inputs) : inputs[0];
+        costAfter_ = cost(res);
+        if (costAfter_ >= costBefore_) {
+            costAfter_ = costBefore_;
+            return root;
+        }
+        return res;
+    }
+
+    /** Summary of the last run. */
+    public String report() {
+        return format("%d iterations (%s), %d e-nodes in %d e-classes, cost %.0f -> %.0f", iterations_, stop_,
+                memo_.size(), classes_.size(), costBefore_, costAfter_);
+    }
+
+    // -- E-graph --------------------------------------------------------------------------------
+
+    int find(int id) {
+        int root = id;
+        while (parent_.get(root) != root) root = parent_.get(root);
+        while (parent_.get(id) != root) {
+            int next = parent_.get(id);
+            parent_.set(id, root);
+            id = next;
+        }
+        return root;
+    }
+
+    // internal: node with canonical input classes
+    private ENode canonical(ENode n) {
+        var kids = new int[n.kids.length];
+        for (int i = 0; i != kids.length; ++i) kids[i] = find(n.kids[i]);
+        return Arrays.equals(kids, n.kids) ? n : new ENode(n.kind, n.value, n.name, kids);
+    }
+
+    /** Add a node and return its e-class. */
+    int add(ENode n) {
+        n = canonical(n);
+        var id = memo_.get(n);
+        if (id != null) return find(id);
+        id = parent_.size();
+        parent_.add(id);
+        memo_.put(n, id);
+        var nodes = new ArrayList<ENode>();
+        nodes.add(n);
+        classes_.put(id, nodes);
+        if (n.is(Lit.class)) constants_.put(id, n.value);
+        return id;
+    }
+
+    int add(Class<?> kind, int... kids) { return add(new ENode(kind, 0., null, kids)); }
+
+    int lit(double value) { return add(new ENode(Lit.class, scratch_.precision().round(value), null)); }
+
+    /** Merge two e-classes; congruence is restored by rebuild. */
+    void union(int a, int b) {
+        a = find(a);
+        b = find(b);
+        if (a == b) return;
+        if (b < a) {
+            int t = a;
+            a = b;
+            b = t;
+        }
+        parent_.set(b, a);
+        classes_.get(a).addAll(classes_.remove(b));
+        var value = constants_.remove(b);
+        if (value != null) constants_.putIfAbsent(a, value);
+    }
+
+    // internal: restore the invariants after unions, i.e., merge e-classes holding the same node after
+    // canonicalization (congruence) until nothing changes, then store canonical, duplicate-free nodes
+    private void rebuild() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            var pairs = new ArrayList<Map.Entry<ENode, Integer>>();
+            for (var entry : classes_.entrySet())
+                for (var n : entry.getValue()) pairs.add(Map.entry(n, entry.getKey()));
+
+            var memo = new HashMap<ENode, Integer>();
+            for (var pair : pairs) {
+                var n     = canonical(pair.getKey());
+                int c     = find(pair.getValue());
+                var other = memo.putIfAbsent(n, c);
+                if (other != null && find(other) != c) {
+                    union(other, c);
+                    changed = true;
+                }
+            }
+            memo_ = memo;
+        }
+
+        classes_.clear();
+        constants_.clear();
+        for (var entry : memo_.entrySet()) {
+            int c = find(entry.getValue());
+            entry.setValue(c);
+            classes_.computeIfAbsent(c, k -> new ArrayList<ENode>()).add(entry.getKey());
+            if (entry.getKey().is(Lit.class)) constants_.put(c, entry.getKey().value);
+        }
+    }
+
+    private ArrayList<ENode> nodes(int c) { return classes_.get(find(c)); }
+
+    private boolean isConst(int c, double value) {
+        var constant = constants_.get(find(c));
+        return constant != null && constant == value;
+    }
+
+    // -- Rules ----------------------------------------------------------------------------------
+
+    // internal: collect the rewrites matching node n of e-class c (applied after all classes are searched)
+    private void search(int c, ENode n, ArrayList<Match> matches) {
+        var k = n.kids;
+
+        // constant folding
+        if (k.length > 0 && !constants_.containsKey(c)) {
+            var values = new double[k.length];
+            boolean all = true;
+            for (int i = 0; i != k.length && all; ++i) {
+                var value = constants_.get(find(k[i]));
+                all = value != null;
+                if (all) values[i] = value;
+            }
+            var value = all ? fold(n.kind, values) : null;
+            if (value != null && Double.isFinite(value)) match(matches, Rule.FOLD, () -> union(c, lit(value)));
+        }
+
+        if (n.is(Add.class) || n.is(Mul.class)) {
+            var kind = n.kind;
+            match(matches, Rule.COMMUTE, () -> union(c, add(kind, k[1], k[0])));
+            for (var x : nodes(k[0]))
+                if (x.is(kind)) match(matches, Rule.ASSOCIATE, () -> union(c, add(kind, x.kids[0], add(kind, x.kids[1], k[1]))));
+        }
+
+        if (n.is(Add.class)) {
+            if (isConst(k[1], 0.)) match(matches, Rule.ADD_ZERO, () -> union(c, k[0]));
+            for (var x : nodes(k[0])) {
+                if (!x.is(Mul.class)) continue;
+                match(matches, Rule.FMA, () -> union(c, add(Fma.class, x.kids[0], x.kids[1], k[1]))); // a*b + d = fma(a, b, d)
+                for (var y : nodes(k[1])) {                                                          // a*b + a*d = a*(b + d)
+                    if (y.is(Mul.class) && find(x.kids[0]) == find(y.kids[0]))
+                        match(matches, Rule.FACTOR, () -> union(c, add(Mul.class, x.kids[0], add(Add.class, x.kids[1], y.kids[1]))));
+                }
+            }
+            for (var y : nodes(k[1]))
+                if (y.is(Neg.class)) match(matches, Rule.ADD_NEG, () -> union(c, add(Sub.class, k[0], y.kids[0])));
+        } else if (n.is(Mul.class)) {
+            if (isConst(k[1], 1.)) match(matches, Rule.MUL_ONE, () -> union(c, k[0]));
+            if (isConst(k[1], 0.)) match(matches, Rule.MUL_ZERO, () -> union(c, lit(0.)));
+            if (isConst(k[1], -1.)) match(matches, Rule.MUL_MINUS_ONE, () -> union(c, add(Neg.class, k[0])));
+            for (var x : nodes(k[0])) {
+                if (x.is(Neg.class)) match(matches, Rule.MUL_NEG, () -> union(c, add(Neg.class, add(Mul.class, x.kids[0], k[1]))));
+                if (x.is(Exp.class)) {                           // exp(a) * exp(b) = exp(a + b)
+                    for (var y : nodes(k[1]))
+                        if (y.is(Exp.class)) match(matches, Rule.EXP_MUL, () -> union(c, add(Exp.class, add(Add.class, x.kids[0], y.kids[0]))));
+                }
+            }
+        } else if (n.is(Fma.class)) {
+            match(matches, Rule.EXPAND_FMA, () -> union(c, add(Add.class, add(Mul.class, k[0], k[1]), k[2])));
+        } else if (n.is(Sub.class)) {
+            match(matches, Rule.EXPAND_SUB, () -> union(c, add(Add.class, k[0], add(Neg.class, k[1]))));
+        } else if (n.is(Neg.class)) {
+            for (var x : nodes(k[0])) if (x.is(Neg.class)) match(matches, Rule.NEG_NEG, () -> union(c, x.kids[0]));
+        } else if (n.is(Div.class)) {
+            if (isConst(k[1], 1.)) match(matches, Rule.DIV_ONE, () -> union(c, k[0]));
+            for (var y : nodes(k[1]))                            // a / exp(b) = a * exp(-b)
+                if (y.is(Exp.class)) match(matches, Rule.DIV_EXP, () -> union(c, add(Mul.class, k[0], add(Exp.class, add(Neg.class, y.kids[0])))));
+        } else if (n.is(Log.class)) {
+            for (var x : nodes(k[0])) if (x.is(Exp.class)) match(matches, Rule.LOG_EXP, () -> union(c, x.kids[0])); // log(exp(a)) = a
+        }
+    }
+
+    private static void match(ArrayList<Match> matches, Rule rule, Runnable apply) { matches.add(new Match(rule, apply)); }
+
+    // internal: value of an operator of the given kind on literal inputs, or null
+    private Double fold(Class<?> kind, double[] values) {
+        if (kind == Grad.class) return null;
+        var inputs = new Op[values.length];
+        for (int i = 0; i != values.length; ++i) inputs[i] = scratch_.lit(values[i]);
+        try {
+            return Op.construct(kind, inputs).constant();
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    // -- Extraction -----------------------------------------------------------------------------
+
+    // internal: cheapest node of each e-class, counting inputs as trees (iterated until costs are stable)
+    private HashMap<Integer, ENode> extract() {
+        var best = new HashMap<Integer, ENode>();
+        var cost = new HashMap<Integer, Double>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (var entry : classes_.entrySet()) {
+                int c = entry.getKey();
+                for (var n : entry.getValue()) {
+                    double total = cost_.applyAsDouble(n.kind);
+                    for (int i = 0; i != n.kids.length && total < Double.POSITIVE_INFINITY; ++i)
+                        total += cost.getOrDefault(find(n.kids[i]), Double.POSITIVE_INFINITY);
+                    if (total < cost.getOrDefault(c, Double.POSITIVE_INFINITY) - 1e-9) {
+                        cost.put(c, total);
+                        best.put(c, n);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    // internal: build the operator for e-class c from the chosen nodes
+    private Op build(int c, HashMap<Integer, ENode> best, HashMap<Integer, Op> built, DAG dag) {
+        var op = built.get(c);
+        if (op != null) return op;
+        var n = best.get(c);
+        if (n.is(Lit.class)) {
+            op = dag.lit(n.value);
+        } else if (n.is(Var.class)) {
+            op = dag.var(n.name);
+        } else {
+            var inputs = new Op[n.kids.length];
+            for (int i = 0; i != inputs.length; ++i) inputs[i] = build(find(n.kids[i]), best, built, dag);
+            op = Op.construct(n.kind, inputs);
+        }
+        built.put(c, op);
+        return op;
+    }
+}
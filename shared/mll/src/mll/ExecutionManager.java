@@ -0,0 +1,243 @@
+package mll;
+
+import static java.lang.String.format;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Tiered execution of compute graphs.
+ *
+ * Each root starts on the interpreter (Op#eval(HashMap)), which needs no preparation, so graphs that are evaluated
+ * only a few times start instantly. Calls are counted per root; once a root reaches the threshold, it is compiled to
+ * a MemoryPlan on a background thread and the compiled backend is swapped in atomically for later calls. Calls
+ * arriving meanwhile keep using the interpreter.
+ *
+ * The backend is chosen by measured per-call cost. Both backends are compared in rounds: during a round, calls
+ * alternate between the backends, first untimed to warm both up (the first round warms up the freshly compiled code
+ * for WARMUP calls), then timed for SAMPLES calls each. The backend with the lower median cost is used until the next
+ * round. Rounds repeat with a period that doubles whenever the choice is confirmed, so a wrong choice (e.g., due to a
+ * GC pause or JIT compilation during a round) is corrected later while the overhead of long loops vanishes.
+ *
+ * All methods may be called from several threads at once.
+ */
+public class ExecutionManager {
+    /** Default number of calls after which a root is compiled. */
+    public static final int DEFAULT_THRESHOLD = 100;
+
+    /** Number of timed calls per backend and round. */
+    static final int SAMPLES = 32;
+
+    /** Number of untimed calls (of both backends) before the timed calls of the first round after compilation. */
+    static final int WARMUP = 2048;
+
+    /** Number of calls between the first two rounds; doubles up to MAX_PERIOD while the choice is confirmed. */
+    static final long PERIOD = 1 << 14;
+    static final long MAX_PERIOD = 1 << 24;
+
+    /** Execution tier of a root. */
+    public enum Tier { INTERPRETED, COMPILING, COMPILED }
+
+    /** Calls after which a root is compiled. */
+    private final int threshold_;
+
+    /** Background thread compiling hot roots (of all managers). */
+    private static final ExecutorService compiler_ = Executors.newSingleThreadExecutor(task -> {
+        var thread = new Thread(task, "mll-compiler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** State of each evaluated root. */
+    private final ConcurrentHashMap<Op, Entry> entries_ = new ConcurrentHashMap<Op, Entry>();
+
+    public ExecutionManager() { this(DEFAULT_THRESHOLD); }
+
+    public ExecutionManager(int threshold) {
+        threshold_ = Math.max(1, threshold);
+    }
+
+    /** Return the outputs of root given the values of its free variables (in the order of Op#freeVars()), using
+     * the current backend of root. As Op#evalOutputs, the outputs of a Grad root are the values of all its inputs.
+     * The returned array may be reused by the next call of the same thread. */
+    public double[] eval(Op root, double... values) {
+        return entries_.computeIfAbsent(root, Entry::new).eval(values);
+    }
+
+    /** Current tier of root. */
+    public Tier tier(Op root) {
+        var entry = entries_.get(root);
+        return entry == null ? Tier.INTERPRETED : entry.tier();
+    }
+
+    /** Forget all roots (e.g., after DAG#clear). */
+    public void clear() { entries_.clear(); }
+
+    /** One line per root (by id): number of calls, tier and measured cost per call of each backend. */
+    public String stats() {
+        var stats = new StringBuilder();
+        for (var entry : entries_.values()) stats.append(entry).append('\n');
+        return stats.toString();
+    }
+
+    // internal: median of the first n samples, NaN without samples
+    static double median(long[] samples, int n) {
+        if (n == 0) return Double.NaN;
+        var sorted = Arrays.copyOf(samples, n);
+        Arrays.sort(sorted);
+        return sorted[n / 2];
+    }
+
+    /** A way to evaluate a root. */
+    interface Backend { double[] eval(double[] values); }
+
+    // internal: evaluates recursively with a fresh env per call
+    static final class Interpreter implements Backend {
+        private final Op    root_;
+        private final Var[] vars_;
+
+        Interpreter(Op root) {
+            root_ = root;
+            vars_ = root.freeVars();
+        }
+
+        @Override public double[] eval(double[] values) {
+            if (vars_.length != values.length)
+                throw new IllegalArgumentException("number of provided values does not match number of free variables");
+            var env = new HashMap<Op, Double>();
+            var precision = root_.dag().precision();
+            for (int i = 0; i != vars_.length; ++i) env.put(vars_[i], precision.round(values[i]));
+            var res = root_.eval(env);
+            return root_ instanceof Grad grad ? grad.outputs(env) : new double[] { res };
+        }
+    }
+
+    // internal: evaluates a MemoryPlan with one context per thread
+    static final class Compiled implements Backend {
+        private final ThreadLocal<MemoryPlan.Context> context_;
+
+        Compiled(Op root) {
+            var plan = MemoryPlan.of(root);
+            context_ = ThreadLocal.withInitial(plan::newContext);
+        }
+
+        @Override public double[] eval(double[] values) { return context_.get().eval(values); }
+    }
+
+    // internal: call counter, current backend and timings of one root
+    private final class Entry {
+        private final Op          root_;
+        private final Interpreter interpreter_;
+        private volatile Backend  compiled_;          // null until compiled
+        private volatile Backend  backend_;           // backend used outside of rounds
+        private volatile Tier     tier_     = Tier.INTERPRETED;
+        private volatile boolean  compile_  = false;  // compilation requested (once)
+        private final AtomicLong  calls_    = new AtomicLong();
+
+        // current round: calls [roundStart_, roundEnd_) alternate between the backends, calls from timedStart_ on
+        // are timed; no round is scheduled before compilation (or if it failed)
+        private volatile long roundStart_ = Long.MAX_VALUE;
+        private volatile long timedStart_ = Long.MAX_VALUE;
+        private volatile long roundEnd_   = Long.MAX_VALUE;
+        private long          period_     = PERIOD;
+
+        // timed calls of the current round and median cost per call of the last round
+        private final long[] interpretedNanos_ = new long[SAMPLES];
+        private final long[] compiledNanos_    = new long[SAMPLES];
+        private int          interpretedCalls_, compiledCalls_;
+        private double       interpretedCost_  = Double.NaN, compiledCost_ = Double.NaN;
+        private int          rounds_;
+
+        Entry(Op root) {
+            root_        = root;
+            interpreter_ = new Interpreter(root);
+            backend_     = interpreter_;
+        }
+
+        Tier tier() { return tier_; }
+
+        double[] eval(double[] values) {
+            long n = calls_.incrementAndGet();
+            if (n < roundStart_) {
+                if (n >= threshold_ && !compile_) compile();
+                return backend_.eval(values);
+            }
+            if (n >= roundEnd_) {
+                if (n == roundEnd_) finishRound(n);
+                return backend_.eval(values);
+            }
+
+            // alternate between the backends, so both run under the same conditions
+            boolean compiled = (n & 1) == 0;
+            var backend = compiled ? compiled_ : interpreter_;
+            if (n < timedStart_) return backend.eval(values);
+
+            long start = System.nanoTime();
+            var res = backend.eval(values);
+            record(compiled, System.nanoTime() - start);
+            return res;
+        }
+
+        // compile in the background (once) and schedule the first round
+        private synchronized void compile() {
+            if (compile_) return;
+            compile_ = true;
+            tier_    = Tier.COMPILING;
+            compiler_.submit(() -> {
+                try {
+                    var compiled = new Compiled(root_);
+                    synchronized (this) {
+                        compiled_ = backend_ = compiled;
+                        tier_     = Tier.COMPILED;
+                        schedule(calls_.get() + 1, WARMUP);
+                    }
+                } catch (RuntimeException e) {
+                    System.out.println("Warning: compilation failed, keep interpreting " + this + ": " + e);
+                    tier_ = Tier.INTERPRETED;
+                }
+            });
+        }
+
+        // schedule a round starting at call start with the given number of untimed calls
+        private synchronized void schedule(long start, int warmup) {
+            interpretedCalls_ = compiledCalls_ = 0;
+            roundEnd_   = start + warmup + 2 * SAMPLES;
+            timedStart_ = start + warmup;
+            roundStart_ = start;
+        }
+
+        private synchronized void record(boolean compiled, long nanos) {
+            if (compiled) {
+                if (compiledCalls_ < SAMPLES) compiledNanos_[compiledCalls_++] = nanos;
+            } else {
+                if (interpretedCalls_ < SAMPLES) interpretedNanos_[interpretedCalls_++] = nanos;
+            }
+        }
+
+        // keep the cheaper backend until the next round, which comes later if the choice did not change
+        private synchronized void finishRound(long n) {
+            interpretedCost_ = median(interpretedNanos_, interpretedCalls_);
+            compiledCost_    = median(compiledNanos_, compiledCalls_);
+            ++rounds_;
+            var backend = Double.isNaN(compiledCost_) || Double.isNaN(interpretedCost_) ? backend_
+                    : compiledCost_ <= interpretedCost_ ? compiled_ : interpreter_;
+            if (backend == backend_) {
+                period_ = Math.min(2 * period_, MAX_PERIOD);
+            } else {
+                period_  = PERIOD;
+                backend_ = backend;
+                tier_    = backend == compiled_ ? Tier.COMPILED : Tier.INTERPRETED;
+            }
+            schedule(n + period_, 2 * SAMPLES);
+        }
+
+        @Override public synchronized String toString() {
+            if (rounds_ == 0) return format("_%d: %d calls, %s, backends not compared yet", root_.id(), calls_.get(), tier_);
+            return format("_%d: %d calls, %s, interpreted %.0f ns/call, compiled %.0f ns/call (median of round %d)",
+                    root_.id(), calls_.get(), tier_, interpretedCost_, compiledCost_, rounds_);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package mll;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+
+/** Operator to compute the exponential function of its input. */
+public class Exp extends UnOp {
+    Exp(Op arg) { super(arg); }
+
+    // Smart constructor
+    public static Op c(Op x) {
+        var dag = x.dag();
+        return dag.unify(new Exp(x));
+    }
+
+    // Required implementation (see Op#eval_)
+    @Override protected double eval_(double[] inVals) {
+        return Math.exp(inVals[0]);
+    }
+
+    // Required implementation (see Op#diff)
+    @Override protected Op diff(int inputIdx) { return this; }
+
+    // Required implementation (see Op#llvm_)
+    @Override protected String llvm_(HashMap<Op, String> map, Writer writer) throws IOException {
+        var t = llvmType();
+        var a = arg().llvm(map, writer);
+        var x = format("%%_%d", id());
+        writer.append(format("\t%s = call %s %s(%s %s)\n", x, t, dag().precision().intrinsic("exp"), t, a));
+        return x;
+    }
+}
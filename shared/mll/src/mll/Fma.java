@@ -0,0 +1,65 @@
+package mll;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+
+/** Operator to compute a * b + c of its three inputs with a single rounding (fused multiply-add). */
+public class Fma extends Op {
+    Fma(Op a, Op b, Op c) { super(a.dag(), a, b, c); }
+
+    // Smart constructor
+    public static Op c(Op x, Op y, Op z) {
+        var dag = x.dag();
+        if (dag.doRewrite()) {
+            if (Lit.is(x, 0.) || Lit.is(y, 0.)) return z; // ignores 0 * inf = NaN, as Mul
+            if (Lit.is(x, 1.)) return Add.c(y, z);
+            if (Lit.is(y, 1.)) return Add.c(x, z);
+            if (Lit.is(z, 0.)) return Mul.c(x, y);
+        }
+        return dag.unify(new Fma(x, y, z));
+    }
+
+    @Override public String toString() { return format("(fma(%s, %s, %s))", input(0), input(1), input(2)); }
+
+    // Required implementation (see Op#eval_)
+    @Override protected double eval_(double[] inVals) {
+        if (dag().precision() == Precision.F32)
+            return Math.fma((float) inVals[0], (float) inVals[1], (float) inVals[2]);
+        return Math.fma(inVals[0], inVals[1], inVals[2]);
+    }
+
+    // Specialized batch loop (see Op#evalBatch_)
+    @Override protected void evalBatch_(double[][] inCols, double[] out) {
+        if (dag().precision() == Precision.F32) {
+            super.evalBatch_(inCols, out);
+            return;
+        }
+        var a = inCols[0];
+        var b = inCols[1];
+        var c = inCols[2];
+        for (int i = 0, e = out.length; i != e; ++i) out[i] = Math.fma(a[i], b[i], c[i]);
+    }
+
+    // Required implementation (see Op#diff)
+    @Override protected Op diff(int inputIdx) {
+        return switch (inputIdx) {
+            case 0  -> input(1);
+            case 1  -> input(0);
+            default -> lit1();
+        };
+    }
+
+    // Required implementation (see Op#llvm_)
+    @Override protected String llvm_(HashMap<Op, String> map, Writer writer) throws IOException {
+        var t = llvmType();
+        var a = input(0).llvm(map, writer);
+        var b = input(1).llvm(map, writer);
+        var c = input(2).llvm(map, writer);
+        var x = format("%%_%d", id());
+        writer.append(format("\t%s = call %s %s(%s %s, %s %s, %s %s)\n", x, t, dag().precision().intrinsic("fma"), t, a, t, b, t, c));
+        return x;
+    }
+}
@@ -4,7 +4,11 @@ import static java.lang.String.format;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Objects;
 
 /** An operator that stores gradient information in its inputs.
  * 
@@ -12,44 +16,83 @@ import java.util.HashMap;
  * first input is the result (w.r.t. which derivatives are taken), its subsequent inputs are the partial derivatives 
  * of the result w.r.t. to the free variables.  
  * 
- * When evaluated, the grad operator simply returns its input. It's main use is to access the partial derivates.
+ * A Grad obtained from {@code DAG#backwards(Op...)} has several results: its first numResults() inputs are the
+ * results, followed by the partial derivatives of the first result w.r.t. all variables, then those of the second
+ * result, and so on.
+ * 
+ * When evaluated, the grad operator simply returns its (first) input. Its main use is to access the partial derivates:
+ * Op#evalOutputs and MemoryPlan.Context#eval return the values of all inputs of a Grad (its outputs), and
+ * result(...) and grad(...) look up results and partial derivatives in such an array. The graph itself holds no
+ * evaluation state.
  */
 public class Grad extends Op {
-    private double[] result_; // cached result after last eval, hacky but works for us
     private Var[]    vars_; // variables w.r.t. which partial derivatives are taken (in order)
+    private int      numResults_; // number of results (leading inputs)
 
-    Grad(Op[] inputs, Var[] vars) {
+    Grad(Op[] inputs, Var[] vars, int numResults) {
         super(inputs[0].dag(), inputs);
-        vars_ = vars;
+        vars_       = vars;
+        numResults_ = numResults;
+        hash_       = Objects.hash(hash_, numResults);
     }
 
-    public static Grad c(Op[] inputs, Var[] vars) { return (Grad) inputs[0].dag().unify(new Grad(inputs, vars)); }
+    public static Grad c(Op[] inputs, Var[] vars) { return c(inputs, vars, 1); }
 
-    /** Result of this operator when it was last evaluated */
-    public double grad(String varName) { return result_[index(varName)]; }
-    
-    /** Returns all results of this operator (result and gradients) when it was last evaluated */
-    public double[] results() { return result_; }
+    public static Grad c(Op[] inputs, Var[] vars, int numResults) {
+        if (inputs.length != numResults * (vars.length + 1))
+            throw new IllegalArgumentException("number of inputs does not match number of results and variables");
+        return (Grad) inputs[0].dag().unify(new Grad(inputs, vars, numResults));
+    }
 
-    /** Result of this operator when it was last evaluated */
-    public double result() { return result_[0]; }
-    
-    /** Result of input(i) when it was last evaluated */
-    public double result(int i) { return result_[i]; }
+    @Override public boolean equals(Object obj) {
+        return super.equals(obj) && numResults() == ((Grad) obj).numResults();
+    }
+
+    /** Partial derivative of the (first) result w.r.t. the specified variable, given the outputs of this operator */
+    public double grad(double[] outputs, String varName) { return outputs[index(varName)]; }
+
+    /** Partial derivative of result r w.r.t. the specified variable, given the outputs of this operator */
+    public double grad(double[] outputs, int r, String varName) { return outputs[index(r, varName)]; }
+
+    /** The (first) result, given the outputs of this operator */
+    public double result(double[] outputs) { return outputs[0]; }
 
-    /** Returns index of specified variable in result() */
-    public int index(String varName) {
+    /** Value of input(i), given the outputs of this operator (for i &lt; numResults(), the i-th result) */
+    public double result(double[] outputs, int i) { return outputs[i]; }
+
+    /** Returns the outputs of this operator (the values of all inputs) after it was evaluated with env (see
+     * Op#eval(HashMap)) */
+    public double[] outputs(HashMap<Op, Double> env) {
+        var outputs = new double[numInputs()];
+        for (int i = 0; i != outputs.length; ++i) outputs[i] = env.get(input(i));
+        return outputs;
+    }
+
+    /** Returns index of the partial derivative of the (first) result w.r.t. the specified variable in the outputs */
+    public int index(String varName) { return index(0, varName); }
+
+    /** Returns index of the partial derivative of result r w.r.t. the specified variable in the outputs */
+    public int index(int r, String varName) {
     	for (int i=0; i<vars_.length; i++) {
-    		if (vars_[i].name().equals(varName)) return i+1;
+    		if (vars_[i].name().equals(varName)) return numResults_ + r * vars_.length + i;
     	}
     	return -1;
 	};
+
+    /** Returns the number of results (the first inputs) */
+    public int numResults() { return numResults_; }
     
     /** Returns the variables w.r.t. which partial derivatives are taken (in order of inputs 1, 2, ...) */
     public Var[] vars() { return vars_; }
     public int numVars() { return vars_.length; }
     public Var var(int i) { return vars_[i]; }
 
+    @Override Op rebuild(DAG dag, Op[] inputs) {
+        var vars = new Var[numVars()];
+        for (int i = 0; i != vars.length; ++i) vars[i] = dag.var(var(i).name());
+        return c(inputs, vars, numResults());
+    }
+
     public @Override String toString() {
         var res = "{";
         var sep = "";
@@ -61,8 +104,11 @@ public class Grad extends Op {
     }
 
     @Override protected double eval_(double[] inVals) {
-        result_ = inVals; // cache it
-        return result_[0];
+        return inVals[0];
+    }
+
+    @Override protected void evalBatch_(double[][] inCols, double[] out) {
+        System.arraycopy(inCols[0], 0, out, 0, out.length);
     }
 
     @Override protected String llvm_(HashMap<Op, String> map, Writer writer) throws IOException {
@@ -76,13 +122,106 @@ public class Grad extends Op {
         var llvmInputs = new String[n];
         for (int i = 0; i != n; ++i) llvmInputs[i] = input(i).llvm(map, writer);
 
+        var t = llvmType();
         for (int i = 0, e = numInputs(); i != e; ++i) {
-            var gep   = format("\t%%_output%d = getelementptr inbounds double, double* %%_output, i64 %d\n", i, i);
-            var store = format("\tstore double %s, double* %%_output%d\n", llvmInputs[i], i);
+            var gep   = format("\t%%_output%d = getelementptr inbounds %s, %s* %%_output, i64 %d\n", i, t, t, i);
+            var store = format("\tstore %s %s, %s* %%_output%d\n", t, llvmInputs[i], t, i);
             writer.append(gep + store);
         }
     }
 
+    /** Write LLVM code for a complete training kernel to the specified writer.
+     *
+     * The kernel runs stochastic gradient descent with this operator's result as the loss:
+     * <pre>
+     * void mll_train(real* data, i64 rows, real* w, real eps, i64 epochs, real* loss)
+     * </pre>
+     * where real is the LLVM type of the DAG's precision (double or float).
+     * data holds rows examples in row-major order, each consisting of the values of the specified inputs (in order).
+     * For each epoch and example, the kernel computes the loss and its partial derivatives and updates each of the
+     * specified weights in place, i.e., w[i] -= eps * d loss / d weights[i]. The summed loss of epoch e is stored in
+     * loss[e]. The number of columns and weights is exported as mll_num_cols and mll_num_weights. */
+    public final void llvmTrain(Writer writer, Var[] inputs, Var[] weights) throws IOException {
+        var gradIdx = new int[weights.length];
+        for (int i = 0; i != weights.length; ++i) {
+            gradIdx[i] = index(weights[i].name());
+            if (gradIdx[i] < 0) throw new IllegalArgumentException("No partial derivative w.r.t. weight " + weights[i]);
+        }
+        var free = new HashSet<Var>(Arrays.asList(vars()));
+
+        var t = llvmType();
+        llvmDeclarations(dag().precision(), writer);
+        writer.append(format("@mll_num_cols = constant i64 %d\n", inputs.length));
+        writer.append(format("@mll_num_weights = constant i64 %d\n\n", weights.length));
+        writer.append(format("define void @mll_train(%s* noundef noalias %%_data, i64 %%_rows, %s* noundef noalias %%_w, "
+                           + "%s %%_eps, i64 %%_epochs, %s* noundef noalias %%_loss) {\n", t, t, t, t));
+        writer.append("entry:\n");
+        writer.append("\t%_norows = icmp eq i64 %_rows, 0\n");
+        writer.append("\t%_noepochs = icmp eq i64 %_epochs, 0\n");
+        writer.append("\t%_skip = or i1 %_norows, %_noepochs\n");
+        writer.append("\tbr i1 %_skip, label %exit, label %epoch\n");
+
+        // outer loop over epochs
+        writer.append("epoch:\n");
+        writer.append("\t%_e = phi i64 [ 0, %entry ], [ %_e_next, %epoch_end ]\n");
+        writer.append("\tbr label %row\n");
+
+        // inner loop over examples, accumulating the loss
+        writer.append("row:\n");
+        writer.append("\t%_r = phi i64 [ 0, %epoch ], [ %_r_next, %row ]\n");
+        writer.append(format("\t%%_sum = phi %s [ 0.0, %%epoch ], [ %%_sum_next, %%row ]\n", t));
+        writer.append(format("\t%%_base = mul i64 %%_r, %d\n", inputs.length));
+
+        // load the example and the current weights
+        var map = new HashMap<Op, String>();
+        for (int i = 0; i != inputs.length; ++i) {
+            if (!free.contains(inputs[i])) continue; // column not used by the loss
+            var name = format("%%%s", inputs[i]);
+            writer.append(format("\t%%_col%d = add i64 %%_base, %d\n", i, i));
+            writer.append(format("\t%%_in%d = getelementptr inbounds %s, %s* %%_data, i64 %%_col%d\n", i, t, t, i));
+            writer.append(format("\t%s = load %s, %s* %%_in%d\n", name, t, t, i));
+            map.put(inputs[i], name);
+        }
+        for (int i = 0; i != weights.length; ++i) {
+            var name = format("%%%s", weights[i]);
+            writer.append(format("\t%%_wp%d = getelementptr inbounds %s, %s* %%_w, i64 %d\n", i, t, t, i));
+            writer.append(format("\t%s = load %s, %s* %%_wp%d\n", name, t, t, i));
+            map.put(weights[i], name);
+        }
+
+        // forward/backward, in the order of the memory plan (only operators the loss or the used gradients need)
+        var needed = new HashSet<Op>();
+        input(0).topo(needed, new ArrayList<Op>());
+        for (int i : gradIdx) input(i).topo(needed, new ArrayList<Op>());
+        for (var op : MemoryPlan.of(this).order()) if (needed.contains(op)) op.llvm(map, writer);
+        var loss  = input(0).llvm(map, writer);
+        var grads = new String[weights.length];
+        for (int i = 0; i != weights.length; ++i) grads[i] = input(gradIdx[i]).llvm(map, writer);
+        writer.append(format("\t%%_sum_next = fadd %s %%_sum, %s\n", t, loss));
+
+        // gradient descent step
+        for (int i = 0; i != weights.length; ++i) {
+            writer.append(format("\t%%_step%d = fmul %s %%_eps, %s\n", i, t, grads[i]));
+            writer.append(format("\t%%_new%d = fsub %s %s, %%_step%d\n", i, t, map.get(weights[i]), i));
+            writer.append(format("\tstore %s %%_new%d, %s* %%_wp%d\n", t, i, t, i));
+        }
+        writer.append("\t%_r_next = add i64 %_r, 1\n");
+        writer.append("\t%_more_rows = icmp ult i64 %_r_next, %_rows\n");
+        writer.append("\tbr i1 %_more_rows, label %row, label %epoch_end\n");
+
+        // store the loss of this epoch
+        writer.append("epoch_end:\n");
+        writer.append(format("\t%%_lossp = getelementptr inbounds %s, %s* %%_loss, i64 %%_e\n", t, t));
+        writer.append(format("\tstore %s %%_sum_next, %s* %%_lossp\n", t, t));
+        writer.append("\t%_e_next = add i64 %_e, 1\n");
+        writer.append("\t%_more_epochs = icmp ult i64 %_e_next, %_epochs\n");
+        writer.append("\tbr i1 %_more_epochs, label %epoch, label %exit\n");
+
+        writer.append("exit:\n");
+        writer.append("\tret void\n");
+        writer.append("}\n");
+    }
+
     @Override protected Op diff(int inputIdx) {
         throw new UnsupportedOperationException("diff not allowed on Grad op (it already holds the derivatives).");
     }
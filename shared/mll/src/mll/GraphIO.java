@@ -0,0 +1,232 @@
+package mll;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/** Compact binary serialization of compute graphs.
+ *
+ * A file holds one or more roots together with all operators reachable from them, so that e.g. the Grad obtained
+ * from {@code Op#backwards()} can be stored once and loaded later instead of being re-derived. Operators are stored in
+ * topological order and refer to their inputs by position in that order. Loading re-creates each operator through
+ * its smart constructor (see Op#construct), so the loaded graph is unified with the target DAG like any other graph.
+ *
+ * Layout (big endian):
+ * <pre>
+ * int    magic ("MLLG"), short version
+ * int    #kinds,  then per kind:  operator class name
+ * int    #names,  then per name:  variable name
+ * int    #nodes,  then per node:  short kind, int #inputs, int[#inputs] input positions, payload
+ * int    #roots,  int[#roots] root positions
+ * </pre>
+ * Strings are stored as int length + UTF-8 bytes. The payload of a Lit is its double value, of a Var the index of its
+ * name, and of a Grad the number of results and the number of variables followed by the indices of their names (in
+ * order); other operators have no payload. Files of version 1 store no number of results (it is 1).
+ *
+ * Operator class names are only resolved against the operator classes of this package (see OPS); files naming any
+ * other class are rejected, so loading a file never loads or instantiates arbitrary classes.
+ *
+ * Files are written to a temporary file that is then atomically moved in place, so readers never see a partially
+ * written file. Loading checks every count, index and input position against the file, so a truncated or corrupt
+ * file fails with an IOException (and can be re-derived, see LogReg.gradGraph) instead of a runtime exception.
+ */
+public class GraphIO {
+    static final int   MAGIC   = 0x4d4c4c47; // "MLLG"
+    static final short VERSION = 2;
+
+    /** Operator classes that may appear in a file, by class name. */
+    static final Map<String, Class<? extends Op>> OPS = List.<Class<? extends Op>>of(
+            Lit.class, Var.class, Grad.class, Add.class, Sub.class, Mul.class, Div.class, Neg.class, Exp.class,
+            Log.class, Sigmoid.class, Softplus.class, LogSigmoid.class, LogSumExp.class, Fma.class)
+            .stream().collect(Collectors.toUnmodifiableMap(Class::getName, Function.identity()));
+
+    /** Write roots and all operators reachable from them to file (atomically replacing it). */
+    public static void save(Path file, Op... roots) throws IOException {
+        // collect nodes (shared between roots) in topological order
+        var done  = new HashSet<Op>();
+        var order = new ArrayList<Op>();
+        for (var root : roots) root.topo(done, order);
+
+        var pos   = new HashMap<Op, Integer>();
+        var kinds = new LinkedIndex<String>();
+        var names = new LinkedIndex<String>();
+        for (int i = 0, e = order.size(); i != e; ++i) {
+            var op = order.get(i);
+            pos.put(op, i);
+            if (!OPS.containsKey(op.getClass().getName())) throw new IOException("Cannot save operator " + op.getClass().getName());
+            kinds.index(op.getClass().getName());
+            if (op instanceof Var var) names.index(var.name());
+            if (op instanceof Grad grad) for (var var : grad.vars()) names.index(var.name());
+        }
+
+        var dir = file.toAbsolutePath().getParent();
+        var tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            writeStrings(out, kinds.list);
+            writeStrings(out, names.list);
+
+            out.writeInt(order.size());
+            for (var op : order) {
+                out.writeShort(kinds.index(op.getClass().getName()));
+                out.writeInt(op.numInputs());
+                for (var input : op.inputs()) out.writeInt(pos.get(input));
+                if (op instanceof Lit lit) out.writeDouble(lit.get());
+                if (op instanceof Var var) out.writeInt(names.index(var.name()));
+                if (op instanceof Grad grad) {
+                    out.writeInt(grad.numResults());
+                    out.writeInt(grad.numVars());
+                    for (var var : grad.vars()) out.writeInt(names.index(var.name()));
+                }
+            }
+
+            out.writeInt(roots.length);
+            for (var root : roots) out.writeInt(pos.get(root));
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Load all roots stored in file into dag (in the order they were saved). */
+    public static Op[] load(DAG dag, Path file) throws IOException {
+        ByteBuffer buf;
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            var roots = load(dag, buf, file);
+            if (buf.hasRemaining()) throw new IOException("Trailing data in MLL graph file: " + file);
+            return roots;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated MLL graph file: " + file, e);
+        }
+    }
+
+    // internal: parse the contents of file, checking all counts, indices and positions
+    private static Op[] load(DAG dag, ByteBuffer buf, Path file) throws IOException {
+        if (buf.getInt() != MAGIC) throw new IOException("Not an MLL graph file: " + file);
+        int version = buf.getShort();
+        if (version != VERSION && version != 1) throw new IOException("Unsupported MLL graph file version " + version + ": " + file);
+
+        var kindNames = readStrings(buf, file);
+        var kinds     = new Class<?>[kindNames.length];
+        for (int i = 0; i != kinds.length; ++i) {
+            kinds[i] = OPS.get(kindNames[i]);
+            if (kinds[i] == null) throw new IOException("Unknown operator " + kindNames[i] + ": " + file);
+        }
+        var names = readStrings(buf, file);
+
+        var nodes = new Op[count(buf, 6, file)];
+        for (int i = 0; i != nodes.length; ++i) {
+            var kind   = kinds[index(buf.getShort(), kinds.length, "operator kind", file)];
+            var inputs = new Op[count(buf, 4, file)];
+            var ids    = readInts(buf, inputs.length);
+            for (int j = 0; j != inputs.length; ++j) inputs[j] = nodes[index(ids[j], i, "input position", file)];
+            if ((kind == Lit.class || kind == Var.class) && inputs.length != 0)
+                throw new IOException("Leaf with inputs at position " + i + ": " + file);
+
+            try {
+                if (kind == Lit.class) {
+                    nodes[i] = dag.lit(buf.getDouble());
+                } else if (kind == Var.class) {
+                    nodes[i] = dag.var(names[index(buf.getInt(), names.length, "variable name", file)]);
+                } else if (kind == Grad.class) {
+                    int numResults = version == 1 ? 1 : buf.getInt();
+                    var vars = new Var[count(buf, 4, file)];
+                    var varNames = readInts(buf, vars.length);
+                    for (int j = 0; j != vars.length; ++j) vars[j] = dag.var(names[index(varNames[j], names.length, "variable name", file)]);
+                    nodes[i] = Grad.c(inputs, vars, numResults);
+                } else {
+                    nodes[i] = Op.construct(kind, inputs);
+                }
+            } catch (RuntimeException e) {
+                // e.g., wrong number of inputs for the operator
+                throw new IOException("Invalid " + kind.getSimpleName() + " at position " + i + ": " + file, e);
+            }
+        }
+
+        var roots = new Op[count(buf, 4, file)];
+        var ids   = readInts(buf, roots.length);
+        for (int i = 0; i != roots.length; ++i) roots[i] = nodes[index(ids[i], nodes.length, "root position", file)];
+        return roots;
+    }
+
+    /** Same as above but for a file that holds a single Grad (e.g., a stored gradient graph). */
+    public static Grad loadGrad(DAG dag, Path file) throws IOException {
+        var roots = load(dag, file);
+        if (roots.length != 1 || !(roots[0] instanceof Grad grad))
+            throw new IOException("File does not hold a single Grad: " + file);
+        return grad;
+    }
+
+    private static void writeStrings(DataOutputStream out, ArrayList<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (var string : strings) {
+            var bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String[] readStrings(ByteBuffer buf, Path file) throws IOException {
+        var strings = new String[count(buf, 4, file)];
+        for (int i = 0; i != strings.length; ++i) {
+            var bytes = new byte[count(buf, 1, file)];
+            buf.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    /** Read a count of items of at least the given size each, which must fit into the rest of the file. */
+    private static int count(ByteBuffer buf, int size, Path file) throws IOException {
+        int n = buf.getInt();
+        if (n < 0 || (long) n * size > buf.remaining()) throw new IOException("Invalid count " + n + ": " + file);
+        return n;
+    }
+
+    /** Check that index refers to one of n items. */
+    private static int index(int index, int n, String what, Path file) throws IOException {
+        if (index < 0 || index >= n) throw new IOException("Invalid " + what + " " + index + ": " + file);
+        return index;
+    }
+
+    /** Bulk read n ints at the current position. */
+    private static int[] readInts(ByteBuffer buf, int n) {
+        var ints = new int[n];
+        buf.asIntBuffer().get(ints);
+        buf.position(buf.position() + 4 * n);
+        return ints;
+    }
+
+    /** Assigns consecutive indices to values in order of first occurrence. */
+    private static class LinkedIndex<T> {
+        final ArrayList<T>        list  = new ArrayList<T>();
+        final HashMap<T, Integer> index = new HashMap<T, Integer>();
+
+        int index(T value) {
+            return index.computeIfAbsent(value, v -> {
+                list.add(v);
+                return list.size() - 1;
+            });
+        }
+    }
+}
@@ -2,6 +2,7 @@ package mll;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Objects;
 
@@ -18,6 +19,7 @@ public class Lit extends Op {
 
     public static Lit c(DAG dag, double f) {
         if (f == -0.f) f = 0.f; // ignore -0.f
+        f = dag.precision().round(f);
         return (Lit)dag.unify(new Lit(dag, f));
     }
     
@@ -28,6 +30,8 @@ public class Lit extends Op {
     public static boolean is(Op e, double f) { return (e instanceof Lit l) && l.is(f); }
     
     @Override public String toString() { return Double.toString(get()); }
+
+    @Override Op rebuild(DAG dag, Op[] inputs) { return c(dag, get()); }
     
     @Override public boolean equals(Object obj) {
     	/// ensure that literals with different values are actually different
@@ -36,10 +40,12 @@ public class Lit extends Op {
 
     @Override protected double eval_(double[] inVals) { return f_; }
 
+    @Override protected void evalBatch_(double[][] inCols, double[] out) { Arrays.fill(out, f_); }
+
     @Override protected Op diff(int inputIdx) { return lit0(); }
 
     @Override protected String llvm_(HashMap<Op, String> map, Writer writer) throws IOException {
     	// for literals, we do not return a variable name but the value directly
-        return Double.toString(get());
+        return dag().precision().literal(get());
     }
 }
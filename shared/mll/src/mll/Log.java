@@ -0,0 +1,47 @@
+package mll;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+
+/** Operator to compute the natural logarithm of its input. */
+public class Log extends UnOp {
+    Log(Op arg) { super(arg); }
+
+    // Smart constructor: recognizes the expanded forms of the fused operators, which would otherwise overflow or
+    // cancel in floating point
+    public static Op c(Op x) {
+        var dag = x.dag();
+        if (dag.doRewrite()) {
+            if (x instanceof Exp exp) return exp.arg();                    // log(exp t) = t
+            if (x instanceof Sigmoid s) return LogSigmoid.c(s.arg());       // log(sigmoid t)
+            if (x instanceof Add add) {
+                var l = add.lhs();
+                var r = add.rhs();
+                if (Lit.is(l, 1.) && r instanceof Exp exp) return Softplus.c(exp.arg()); // log(1 + exp t)
+                if (Lit.is(r, 1.) && l instanceof Exp exp) return Softplus.c(exp.arg()); // log(exp t + 1)
+                if (l instanceof Exp a && r instanceof Exp b) return LogSumExp.c(a.arg(), b.arg());
+            }
+        }
+        return dag.unify(new Log(x));
+    }
+
+    // Required implementation (see Op#eval_)
+    @Override protected double eval_(double[] inVals) {
+        return Math.log(inVals[0]);
+    }
+
+    // Required implementation (see Op#diff)
+    @Override protected Op diff(int inputIdx) { return lit1().div(arg()); }
+
+    // Required implementation (see Op#llvm_)
+    @Override protected String llvm_(HashMap<Op, String> map, Writer writer) throws IOException {
+        var t = llvmType();
+        var a = arg().llvm(map, writer);
+        var x = format("%%_%d", id());
+        writer.append(format("\t%s = call %s %s(%s %s)\n", x, t, dag().precision().intrinsic("log"), t, a));
+        return x;
+    }
+}
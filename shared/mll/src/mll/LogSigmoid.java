@@ -0,0 +1,40 @@
+package mll;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+
+/** Operator to compute log(sigmoid(x)) = -softplus(-x) of its input.
+ * Computed as min(x, 0) - log1p(exp(-|x|)), so it stays finite where sigmoid(x) underflows to 0. */
+public class LogSigmoid extends UnOp {
+    LogSigmoid(Op arg) { super(arg); }
+
+    // Smart constructor
+    public static Op c(Op x) {
+        var dag = x.dag();
+        return dag.unify(new LogSigmoid(x));
+    }
+
+    // Required implementation (see Op#eval_)
+    @Override protected double eval_(double[] inVals) {
+        var x = inVals[0];
+        return Math.min(x, 0.) - Softplus.log1pExpNegAbs(x);
+    }
+
+    // Required implementation (see Op#diff): sigmoid(-x) = 1 - sigmoid(x)
+    @Override protected Op diff(int inputIdx) { return arg().neg().sigmoid(); }
+
+    // Required implementation (see Op#llvm_)
+    @Override protected String llvm_(HashMap<Op, String> map, Writer writer) throws IOException {
+        var t = llvmType();
+        var a = arg().llvm(map, writer);
+        var x = format("%%_%d", id());
+        writer.append(format("\t%s.min = call %s %s(%s %s, %s %s)\n", x, t, dag().precision().intrinsic("minnum"), t, a, t,
+                dag().precision().literal(0.)));
+        var l = Softplus.llvmLog1pExpNegAbs(this, a, writer);
+        writer.append(format("\t%s = fsub %s %s.min, %s\n", x, t, x, l));
+        return x;
+    }
+}
@@ -0,0 +1,55 @@
+package mll;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+
+/** Operator to compute log(exp(a) + exp(b)) of its two inputs.
+ * Computed as max(a, b) + log1p(exp(-|a - b|)), so exp never overflows. */
+public class LogSumExp extends BinOp {
+    LogSumExp(Op lhs, Op rhs) { super(lhs, rhs); }
+
+    // Smart constructor
+    public static Op c(Op x, Op y) {
+        var dag = x.dag();
+        return dag.unify(new LogSumExp(x, y));
+    }
+
+    @Override public String opString() { return "logsumexp"; }
+
+    @Override public String toString() { return format("(%s(%s, %s))", opString(), lhs(), rhs()); }
+
+    // Required implementation (see Op#eval_)
+    @Override protected double eval_(double[] inVals) {
+        var a = inVals[0];
+        var b = inVals[1];
+        var m = Math.max(a, b);
+        if (Double.isInfinite(m)) return m; // both -inf, or one +inf (a - b would be NaN)
+        return m + Softplus.log1pExpNegAbs(a - b);
+    }
+
+    // Required implementation (see Op#diff): the softmax weight of the input, sigmoid(a - b) or sigmoid(b - a)
+    @Override protected Op diff(int inputIdx) {
+        return inputIdx == 0 ? lhs().sub(rhs()).sigmoid() : rhs().sub(lhs()).sigmoid();
+    }
+
+    // Required implementation (see Op#llvm_)
+    @Override protected String llvm_(HashMap<Op, String> map, Writer writer) throws IOException {
+        var t = llvmType();
+        var p = dag().precision();
+        var l = lhs().llvm(map, writer);
+        var r = rhs().llvm(map, writer);
+        var x = format("%%_%d", id());
+        writer.append(format("\t%s.max = call %s %s(%s %s, %s %s)\n", x, t, p.intrinsic("maxnum"), t, l, t, r));
+        writer.append(format("\t%s.dif = fsub %s %s, %s\n", x, t, l, r));
+        var c = Softplus.llvmLog1pExpNegAbs(this, x + ".dif", writer);
+        writer.append(format("\t%s.sum = fadd %s %s.max, %s\n", x, t, x, c));
+        // as in eval_: an infinite max is the result (the difference is NaN if both inputs are the same infinity)
+        writer.append(format("\t%s.mab = call %s %s(%s %s.max)\n", x, t, p.intrinsic("fabs"), t, x));
+        writer.append(format("\t%s.inf = fcmp oeq %s %s.mab, %s\n", x, t, x, p.literal(Double.POSITIVE_INFINITY)));
+        writer.append(format("\t%s = select i1 %s.inf, %s %s.max, %s %s.sum\n", x, x, t, x, t, x));
+        return x;
+    }
+}
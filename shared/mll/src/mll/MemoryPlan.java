@@ -0,0 +1,280 @@
+package mll;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.stream.IntStream;
+
+/** A memory plan to evaluate a compute graph with a small, fixed set of reusable buffers (slots).
+ *
+ * The plan fixes an evaluation order (topological) and computes for each operator the position of its last use.
+ * Slots are assigned greedily in that order: a slot is released as soon as the value it holds is used for the last
+ * time and is then reused for the next value. Thus, the number of slots is bounded by the maximum number of values
+ * live at the same time (the width of the graph) instead of the number of operators.
+ *
+ * The outputs of the plan are the root or, for a Grad, the inputs of the Grad (the result and all partial
+ * derivatives). Their slots are never released. Literals are not evaluated either: like free variables, each one
+ * has a slot of its own that is filled before the operators run. A plan is immutable, so it can be shared by concurrent evaluations;
+ * each of them uses its own Context (or slots) as scratch memory.
+ */
+public class MemoryPlan {
+    /** Number of rows that are evaluated together (by one task) in evalBatch. */
+    static final int BATCH_CHUNK = 4096;
+
+    /** Operators to evaluate, in order (without the free variables, literals and a Grad root). */
+    private final Op[]    order_;
+
+    /** Slot receiving the output of order_[i]. */
+    private final int[]   slots_;
+
+    /** Slots holding the inputs of order_[i]. */
+    private final int[][] inSlots_;
+
+    /** Free variables (in the order of Op#freeVars()) and their slots. */
+    private final Var[]   vars_;
+    private final int[]   varSlots_;
+
+    /** Values of the literals and their slots. */
+    private final double[] litValues_;
+    private final int[]    litSlots_;
+
+    /** Outputs and their slots. */
+    private final Op[]    outputs_;
+    private final int[]   outSlots_;
+
+    /** Total number of slots. */
+    private final int     numSlots_;
+
+    /** Maximum number of inputs of an operator in order_. */
+    private final int     maxArity_;
+
+    /** Precision of the graph. */
+    private final Precision precision_;
+
+    private MemoryPlan(Op root) {
+        outputs_   = root instanceof Grad ? root.inputs() : new Op[] { root };
+        vars_      = root.freeVars();
+        precision_ = root.dag().precision();
+
+        // evaluation order and position of the last use of each operator
+        var all     = root.topo();
+        var order   = new Op[all.length];
+        var lastUse = new HashMap<Op, Integer>();
+        var lits    = new ArrayList<Lit>();
+        int n = 0;
+        for (var op : all) {
+            if (op == root && root instanceof Grad) continue;
+            for (var input : op.inputs()) lastUse.put(input, n);
+            if (op instanceof Lit lit) lits.add(lit);
+            else if (!(op instanceof Var)) order[n++] = op;
+        }
+        order_ = Arrays.copyOf(order, n);
+        for (var output : outputs_) lastUse.put(output, Integer.MAX_VALUE);
+
+        // greedy slot assignment
+        var slots = new HashMap<Op, Integer>();
+        var free  = new ArrayDeque<Integer>();
+        int numSlots = 0;
+        varSlots_ = new int[vars_.length];
+        for (int i = 0; i != vars_.length; ++i) {
+            varSlots_[i] = numSlots++;
+            slots.put(vars_[i], varSlots_[i]);
+        }
+        litValues_ = new double[lits.size()];
+        litSlots_  = new int[lits.size()];
+        for (int i = 0; i != litSlots_.length; ++i) {
+            litValues_[i] = lits.get(i).get();
+            litSlots_[i]  = numSlots++;
+            slots.put(lits.get(i), litSlots_[i]);
+        }
+        slots_   = new int[n];
+        inSlots_ = new int[n][];
+        int maxArity = 0;
+        for (int i = 0; i != n; ++i) {
+            var op = order_[i];
+            maxArity = Math.max(maxArity, op.numInputs());
+            inSlots_[i] = new int[op.numInputs()];
+            for (int j = 0, e = op.numInputs(); j != e; ++j) inSlots_[i][j] = slots.get(op.input(j));
+
+            // inputs used for the last time can be overwritten by the output (literals keep their slots)
+            for (int j = 0, e = op.numInputs(); j != e; ++j) {
+                var input = op.input(j);
+                if (input instanceof Lit) continue;
+                if (lastUse.get(input) == i && slots.remove(input) != null) free.push(inSlots_[i][j]);
+            }
+            slots_[i] = free.isEmpty() ? numSlots++ : free.pop();
+            slots.put(op, slots_[i]);
+        }
+
+        outSlots_ = new int[outputs_.length];
+        for (int i = 0; i != outputs_.length; ++i) outSlots_[i] = slots.get(outputs_[i]);
+        numSlots_ = numSlots;
+        maxArity_ = maxArity;
+    }
+
+    /** Return the plan to evaluate root. As operators never change, the plan is created once and cached in root, so
+     * repeated evaluations (e.g., Op#eval in a loop) and code generation share it. */
+    public static MemoryPlan of(Op root) {
+        var plan = root.plan_;
+        if (plan == null) root.plan_ = plan = new MemoryPlan(root);
+        return plan;
+    }
+
+    /** Free variables whose values are expected as inputs (in order). */
+    public Var[] vars() { return vars_; }
+
+    /** Outputs of the plan (in order). */
+    public Op[] outputs() { return outputs_; }
+
+    /** Number of slots, i.e., the maximum number of values held at the same time. */
+    public int numSlots() { return numSlots_; }
+
+    /** Number of evaluated operators (without free variables and literals). */
+    public int size() { return order_.length; }
+
+    /** Operators in evaluation order (without free variables, literals and a Grad root). */
+    Op[] order() { return order_.clone(); }
+
+    /** Return the values of all outputs given the values of the free variables. */
+    public double[] eval(double... values) {
+        var outputs = new double[outputs_.length];
+        eval(values, new double[numSlots_], outputs);
+        return outputs;
+    }
+
+    /** Same as above, but uses the provided slots (of length numSlots()) and stores the outputs in outputs. Only the
+     * input buffers of the operators (one per number of inputs) are allocated per call; a Context reuses those as
+     * well, so use one to evaluate repeatedly without allocation. */
+    public void eval(double[] values, double[] slots, double[] outputs) {
+        eval(values, slots, newInputs(), outputs);
+    }
+
+    // internal: inputs[k] is the buffer for the input values of operators with k inputs
+    private double[][] newInputs() {
+        var inputs = new double[maxArity_ + 1][];
+        for (int k = 0; k != inputs.length; ++k) inputs[k] = new double[k];
+        return inputs;
+    }
+
+    // internal: evaluate with the given buffers, does not allocate
+    private void eval(double[] values, double[] slots, double[][] inputs, double[] outputs) {
+        if (values.length != vars_.length)
+            throw new IllegalArgumentException("number of provided values does not match number of free variables");
+        for (int i = 0; i != vars_.length; ++i) slots[varSlots_[i]] = precision_.round(values[i]);
+        for (int i = 0; i != litSlots_.length; ++i) slots[litSlots_[i]] = litValues_[i];
+        for (int i = 0; i != order_.length; ++i) {
+            var op     = order_[i];
+            var in     = inSlots_[i];
+            var inVals = inputs[in.length];
+            for (int j = 0; j != in.length; ++j) inVals[j] = slots[in[j]];
+            slots[slots_[i]] = op.check(precision_.round(op.eval_(inVals)), inVals);
+        }
+        for (int i = 0; i != outputs_.length; ++i) outputs[i] = slots[outSlots_[i]];
+    }
+
+    /** Create a new context to evaluate this plan. */
+    public Context newContext() { return new Context(); }
+
+    /** Scratch memory to evaluate a plan repeatedly without allocation. A context must only be used by one thread at
+     * a time, but any number of contexts can evaluate the same plan concurrently. */
+    public class Context {
+        private final double[]   slots_   = new double[numSlots_];
+        private final double[][] inputs_  = newInputs();
+        private final double[]   outputs_ = new double[MemoryPlan.this.outputs_.length];
+
+        /** The plan evaluated by this context. */
+        public MemoryPlan plan() { return MemoryPlan.this; }
+
+        /** Return the values of all outputs given the values of the free variables. The returned array is owned by
+         * this context and overwritten by the next evaluation. */
+        public double[] eval(double... values) {
+            MemoryPlan.this.eval(values, slots_, inputs_, outputs_);
+            return outputs_;
+        }
+    }
+
+    /** Return the columns of all outputs given the columns of the free variables (see Op#evalBatch). Rows are
+     * processed in chunks, in parallel, each chunk with its own numSlots() buffers. Without free variables, there is
+     * a single row; use the variant below to get one row per example (e.g., for a specialized graph whose variables
+     * all turned out to be irrelevant). */
+    public double[][] evalBatch(double[]... values) {
+        return evalBatch(values.length == 0 ? 1 : values[0].length, values);
+    }
+
+    /** Same as above for the given number of rows: each column must hold rows values, and without free variables the
+     * (constant) outputs are computed for all rows. */
+    public double[][] evalBatch(int rows, double[]... values) {
+        check(rows, values.length);
+        for (var column : values)
+            if (column.length != rows) throw new IllegalArgumentException("all columns must have rows values");
+        int n = rows;
+
+        var outputs = new double[outputs_.length][n];
+        int chunks  = (n + BATCH_CHUNK - 1) / BATCH_CHUNK;
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            int from = c * BATCH_CHUNK, to = Math.min(n, from + BATCH_CHUNK);
+            var cols = new double[numSlots_][to - from];
+            for (int i = 0; i != vars_.length; ++i) {
+                System.arraycopy(values[i], from, cols[varSlots_[i]], 0, to - from);
+                precision_.round(cols[varSlots_[i]]);
+            }
+            evalChunk(cols);
+            for (int i = 0; i != outputs_.length; ++i) System.arraycopy(cols[outSlots_[i]], 0, outputs[i], from, to - from);
+        });
+        return outputs;
+    }
+
+    /** Same as above for float columns (e.g., Dataset#floatColumn of an F32 dataset), returning float columns. Inputs
+     * and outputs stay 32-bit: only the per-chunk scratch buffers hold doubles, as operators compute in double and
+     * round their results to the precision of the graph (see Precision). For an F64 graph, inputs are widened exactly
+     * and outputs are rounded to float. */
+    public float[][] evalBatch(float[]... values) {
+        return evalBatch(values.length == 0 ? 1 : values[0].length, values);
+    }
+
+    /** Same as above for the given number of rows (see evalBatch(int, double[]...)). */
+    public float[][] evalBatch(int rows, float[]... values) {
+        check(rows, values.length);
+        for (var column : values)
+            if (column.length != rows) throw new IllegalArgumentException("all columns must have rows values");
+        int n = rows;
+
+        var outputs = new float[outputs_.length][n];
+        int chunks  = (n + BATCH_CHUNK - 1) / BATCH_CHUNK;
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            int from = c * BATCH_CHUNK, to = Math.min(n, from + BATCH_CHUNK);
+            var cols = new double[numSlots_][to - from];
+            for (int i = 0; i != vars_.length; ++i) {
+                var col = cols[varSlots_[i]];
+                for (int r = from; r != to; ++r) col[r - from] = values[i][r];
+            }
+            evalChunk(cols);
+            for (int i = 0; i != outputs_.length; ++i) {
+                var col = cols[outSlots_[i]];
+                for (int r = from; r != to; ++r) outputs[i][r] = (float) col[r - from];
+            }
+        });
+        return outputs;
+    }
+
+    // internal: check the arguments of evalBatch
+    private void check(int rows, int columns) {
+        if (vars_.length != columns)
+            throw new IllegalArgumentException("number of provided columns does not match number of free variables");
+        if (rows < 0) throw new IllegalArgumentException("negative number of rows");
+    }
+
+    // internal: evaluate all operators on one chunk whose variable slots are filled
+    private void evalChunk(double[][] cols) {
+        for (int i = 0; i != litSlots_.length; ++i) Arrays.fill(cols[litSlots_[i]], litValues_[i]);
+        for (int i = 0; i != order_.length; ++i) {
+            var in     = inSlots_[i];
+            var inCols = new double[in.length][];
+            for (int j = 0; j != in.length; ++j) inCols[j] = cols[in[j]];
+            var out = cols[slots_[i]]; // may be the buffer of an input (evalBatch_ works row by row)
+            order_[i].evalBatch_(inCols, out);
+            precision_.round(out);
+        }
+    }
+}
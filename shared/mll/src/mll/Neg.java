@@ -0,0 +1,46 @@
+package mll;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+
+/** Operator to negate its input. */
+public class Neg extends UnOp {
+    Neg(Op arg) { super(arg); }
+
+    // Smart constructor
+    public static Op c(Op x) {
+        var dag = x.dag();
+        if (dag.doRewrite()) {
+            if (x instanceof Neg neg) return neg.arg(); // -(-t) = t
+        }
+        return dag.unify(new Neg(x));
+    }
+
+    // Custom operator string
+    @Override public String opString() { return "-"; }
+
+    // Required implementation (see Op#eval_)
+    @Override protected double eval_(double[] inVals) {
+        return -inVals[0];
+    }
+
+    // Specialized batch loop (see Op#evalBatch_)
+    @Override protected void evalBatch_(double[][] inCols, double[] out) {
+        var a = inCols[0];
+        for (int i = 0, e = out.length; i != e; ++i) out[i] = -a[i];
+    }
+
+    // Required implementation (see Op#diff)
+    @Override protected Op diff(int inputIdx) { return lit(-1.); }
+
+    // Required implementation (see Op#llvm_)
+    @Override protected String llvm_(HashMap<Op, String> map, Writer writer) throws IOException {
+        var a = arg().llvm(map, writer);
+        var x = format("%%_%d", id());
+        writer.append(format("\t%s = fneg %s %s\n", x, llvmType(), a));
+        return x;
+    }
+}
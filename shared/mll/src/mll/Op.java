@@ -7,9 +7,12 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Objects;
 import java.util.TreeSet;
 import java.util.function.BinaryOperator;
@@ -28,6 +31,9 @@ public abstract class Op {
     /** Inputs to this node, ordered. */
     private Op[]  inputs_;
 
+    /** Memory plan of the graph rooted at this node, created on first use (see MemoryPlan#of). */
+    volatile MemoryPlan plan_;
+
     Op(DAG dag, Op... inputs) {
         dag_    = dag;
         id_     = dag.nextID();
@@ -65,10 +71,83 @@ public abstract class Op {
     public Lit lit2() { return lit(2.f); }
 
     public Op add(Op y) { return Add.c(this, y); }
-    public Op mul(Op y) { 
-    	Op mul = null;
-    	return mul;
-    	}
+    public Op sub(Op y) { return Sub.c(this, y); }
+    public Op mul(Op y) { return Mul.c(this, y); }
+    public Op div(Op y) { return Div.c(this, y); }
+    public Op neg() { return Neg.c(this); }
+    public Op exp() { return Exp.c(this); }
+    public Op log() { return Log.c(this); }
+
+    // fused, numerically stable operators (the smart constructors above also recognize their expanded forms)
+    public Op sigmoid() { return Sigmoid.c(this); }
+    public Op softplus() { return Softplus.c(this); }
+    public Op logSigmoid() { return LogSigmoid.c(this); }
+    public Op logSumExp(Op y) { return LogSumExp.c(this, y); }
+    public Op fma(Op y, Op z) { return Fma.c(this, y, z); }
+
+
+    /** Return the counterpart of this operator in dag with the given inputs (see construct). Leaves and operators
+     * with other smart constructors override this. */
+    Op rebuild(DAG dag, Op[] inputs) { return construct(getClass(), inputs); }
+
+    /** Create an operator of the given class through its smart constructor, i.e., a static method {@code c} taking
+     * one Op per input, so the result is unified with the operators already in the inputs' DAG. */
+    static Op construct(Class<?> kind, Op[] inputs) {
+        for (var method : kind.getDeclaredMethods()) {
+            if (!method.getName().equals("c") || !Modifier.isStatic(method.getModifiers())) continue;
+            var params = method.getParameterTypes();
+            if (params.length != inputs.length || !Op.class.isAssignableFrom(method.getReturnType())) continue;
+            if (!Arrays.stream(params).allMatch(param -> param == Op.class)) continue;
+            try {
+                method.setAccessible(true);
+                return (Op) method.invoke(null, (Object[]) inputs);
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        throw new UnsupportedOperationException("No smart constructor c(Op...) found for " + kind.getName());
+    }
+
+
+    // -- Partial evaluation ---------------------------------------------------------------------
+
+    /** Return this operator with the bound variables replaced by literals of their values. The graph is rebuilt
+     * bottom-up through the smart constructors, so rewrites apply to the new inputs, and every operator whose inputs
+     * all became literals is folded into a literal (see constant). The result only depends on the unbound variables;
+     * e.g., a model with its trained weights bound is a kernel that only takes the features. */
+    public Op specialize(Map<Var, Double> bindings) {
+        var map = new HashMap<Op, Op>();
+        for (var op : topo()) {
+            Op res;
+            if (op instanceof Var var && bindings.containsKey(var)) {
+                res = lit(bindings.get(var));
+            } else {
+                var inputs  = new Op[op.numInputs()];
+                var changed = false;
+                for (int i = 0, e = inputs.length; i != e; ++i) {
+                    inputs[i] = map.get(op.input(i));
+                    changed  |= inputs[i] != op.input(i);
+                }
+                res = changed ? op.rebuild(dag(), inputs) : op;
+                var value = res.constant();
+                if (value != null) res = lit(value);
+            }
+            map.put(op, res);
+        }
+        return map.get(this);
+    }
+
+    /** Return the value of this operator if all of its inputs are literals (i.e., it can be folded), otherwise
+     * null. Leaves and Grads are never folded. */
+    final Double constant() {
+        if (numInputs() == 0 || this instanceof Grad) return null;
+        var inVals = new double[numInputs()];
+        for (int i = 0, e = numInputs(); i != e; ++i) {
+            if (!(input(i) instanceof Lit lit)) return null;
+            inVals[i] = lit.get();
+        }
+        return dag().precision().round(eval_(inVals));
+    }
 
 
     // -- Compute free variables and operator usages ----------------------------------------------
@@ -109,12 +188,36 @@ public abstract class Op {
         }
     }
 
+    /** Return all operators below (and including) this operator in topological order, i.e., each operator comes
+     * after all of its inputs and this operator comes last. */
+    Op[] topo() {
+        var order = new ArrayList<Op>();
+        topo(new HashSet<Op>(), order);
+        return order.toArray(new Op[order.size()]);
+    }
+
+    // internal
+    void topo(HashSet<Op> done, ArrayList<Op> order) {
+        if (done.add(this)) {
+            for (var input : inputs()) input.topo(done, order);
+            order.add(this);
+        }
+    }
+
 
     // -- Evaluation -----------------------------------------------------------------------------
 
-    /** Return the output of this operator given values of the inputs. */
+    /** Return the output of this operator given values of the inputs. Values are held in the reusable slots of a
+     * MemoryPlan, so memory is bounded by the width of the graph. The plan is built on the first call and reused by
+     * later ones. */
     public final double eval(double... values) {
-        return this.eval(new HashMap<Op, Double>(), values);
+        return evalOutputs(values)[0];
+    }
+
+    /** Same as above, but returns the values of all outputs: this operator's output or, for a Grad, the values of
+     * all its inputs (results and partial derivatives, see Grad#grad(double[], String)). */
+    public final double[] evalOutputs(double... values) {
+        return MemoryPlan.of(this).eval(values);
     }
 
     /** Return the output of this operator given values of the inputs. All computed values are stored in
@@ -123,7 +226,7 @@ public abstract class Op {
         var vars = freeVars();
         if (vars.length != values.length)
             throw new IllegalArgumentException("number of provided values does not match number of free variables");
-        for (int i = 0, e = vars.length; i != e; ++i) env.put(vars[i], values[i]);
+        for (int i = 0, e = vars.length; i != e; ++i) env.put(vars[i], dag().precision().round(values[i]));
         return eval(env);
     }
 
@@ -136,23 +239,54 @@ public abstract class Op {
         var inVals = new double[numInputs()];
         for (int i = 0, e = numInputs(); i != e; ++i) inVals[i] = input(i).eval(env);
 
-        res = eval_(inVals);
-        if (res.isNaN()) {
+        res = check(dag().precision().round(eval_(inVals)), inVals);
+        env.put(this, res);
+        return res;
+    }
+
+    /** Warn if res (computed from inVals) is NaN or infinite; returns res. */
+    final double check(double res, double[] inVals) {
+        if (Double.isNaN(res)) {
         	System.out.println("Warning: encountered NaN value in " + this);
         	System.out.println("Inputs were: " + Arrays.toString(inVals));
         }
-        if (res.isInfinite()) {
+        if (Double.isInfinite(res)) {
         	System.out.println("Warning: encountered infinite value in " + this);
         	System.out.println("Inputs were: " + Arrays.toString(inVals));
         }
-        env.put(this, res);
         return res;
     }
 
+    /** Same as above, but only the forward values selected by the checkpointing policy are stored in env; all other
+     * forward values are recomputed when needed (see Checkpoints). Bounds memory when evaluating large Grads. env must
+     * provide the values of all free variables. */
+    public final double eval(HashMap<Op, Double> env, Checkpoints checkpoints) {
+        return checkpoints.eval(this, env);
+    }
+
     /** Evaluate this operator.
      * Needs to be implemented by subclasses. */
     abstract double eval_(double[] inVals);
 
+    /** Return the outputs of this operator for a whole batch of inputs at once. values[i] holds the column of values
+     * of the i-th free variable (in the order of freeVars()); all columns must have the same length.
+     * Instead of walking the graph once per row, each operator is evaluated over a chunk of rows (see evalBatch_) and
+     * the chunks are processed in parallel, each with the reusable buffers of a MemoryPlan. */
+    public final double[] evalBatch(double[]... values) {
+        return MemoryPlan.of(this).evalBatch(values)[0];
+    }
+
+    /** Evaluate this operator for a chunk of rows, i.e., out[r] is the output given the input values inCols[i][r].
+     * The default calls eval_ once per row; subclasses may override it with a loop specialized to their operation.
+     * out may be one of the input columns, so row r must not be written before all inputs of row r are read. */
+    protected void evalBatch_(double[][] inCols, double[] out) {
+        var inVals = new double[inCols.length];
+        for (int r = 0, e = out.length; r != e; ++r) {
+            for (int i = 0; i != inVals.length; ++i) inVals[i] = inCols[i][r];
+            out[r] = eval_(inVals);
+        }
+    }
+
     // -- DOT output -----------------------------------------------------------------------------
 
     /** Writes a DOT representation of the compute graph up to this operator to writer, where each
@@ -204,7 +338,9 @@ public abstract class Op {
         for (int i = 0, e = numInputs(); i != e; ++i) {
             var in   = input(i);
             var src  = in.dot(map, env, writer);
-            var attr = this instanceof Grad grad && i >= 1 ? grad.var(i - 1).color() : "";
+            var attr = this instanceof Grad grad && i >= grad.numResults()
+                    ? grad.var((i - grad.numResults()) % grad.numVars()).color()
+                    : "";
             writer.append(format("\t%s -> %s[%s];\n", src, dst, attr));
         }
         return dst;
@@ -218,15 +354,30 @@ public abstract class Op {
 
     /** Return an operator that computes the partial derivatives of this operator's output w.r.t. to
      * each of the free variables in the compute graph. */
-    public Grad backwards() {
-        var uses    = new HashMap<Op, HashSet<Use>>();
-        var vars    = freeVars(uses);
-        var dcache  = new HashMap<Op, Op>();
-        var gradInputs = new Op[vars.length + 1];
-        gradInputs[0] = this; // the value
-        for (int i = 0, e = vars.length; i != e; ++i)
-        	gradInputs[i + 1] = vars[i].backwards(dcache, uses, this); // the partial derivatives
-        return Grad.c(gradInputs, vars);
+    public Grad backwards() { return backwards(new Op[] { this }); }
+
+    /** Same as above for several results at once (see DAG#backwards(Op...)). The uses of all operators are collected
+     * once; partial derivatives w.r.t. operators shared by several results are created once per result, but their
+     * local derivatives (and all other common subexpressions) are shared through the DAG. */
+    static Grad backwards(Op[] results) {
+        if (results.length == 0) throw new IllegalArgumentException("no results to differentiate");
+        var uses = new HashMap<Op, HashSet<Use>>();
+        var vars = new TreeSet<Var>((v, w) -> v.name().compareTo(w.name()));
+        var done = new HashSet<Op>();
+        for (var result : results) {
+            if (result.dag() != results[0].dag()) throw new IllegalArgumentException("results belong to different DAGs");
+            result.freeVars(done, vars, uses);
+        }
+
+        var free       = vars.toArray(new Var[vars.size()]);
+        var gradInputs = new Op[results.length * (free.length + 1)];
+        for (int r = 0, n = results.length; r != n; ++r) {
+            var dcache = new HashMap<Op, Op>();
+            gradInputs[r] = results[r]; // the value
+            for (int i = 0, e = free.length; i != e; ++i)
+                gradInputs[n + r * e + i] = free[i].backwards(dcache, uses, results[r]); // the partial derivatives
+        }
+        return Grad.c(gradInputs, free, results.length);
     }
 
     /** Return an operator that computes the partial derivative of {@code result} w.r.t. to this operator's
@@ -246,19 +397,22 @@ public abstract class Op {
         var outputDerivative = dcache.get(this);
         if (outputDerivative != null) return outputDerivative;
 
-        // otherwise, run backpropagation
-        outputDerivative = lit0();
-        for (var use : uses.get(this)) {
+        // otherwise, run backpropagation (an operator without uses is another result, which does not affect result)
+        outputDerivative = null;
+        var thisUses = uses.get(this);
+        if (thisUses != null) for (var use : thisUses) {
         	// we first compute the partial derivative of each usage of this operator
             var usedBy              = use.op();
             var usedIndex           = use.index();
             var useOutputDerivative = usedBy.backwards(dcache, uses, result); // dresult / duse_out
+            if (Lit.is(useOutputDerivative, 0.)) continue; // use does not lead to result
             var useLocalDerivative  = usedBy.diff(usedIndex); // duse_out / duse_in
             var useInputDerivative  = useOutputDerivative.mul(useLocalDerivative); // chain rule: dres / duse_in
 
             // and then add them all up to obtain the result (multivariate chain rule)
-            outputDerivative = outputDerivative.add(useInputDerivative);
+            outputDerivative = outputDerivative == null ? useInputDerivative : outputDerivative.add(useInputDerivative);
         }
+        if (outputDerivative == null) outputDerivative = lit0();
 
         dcache.put(this, outputDerivative);
         return outputDerivative;
@@ -273,29 +427,27 @@ public abstract class Op {
 
     /** Write LLVM code to compute this operator's output to the specified writer. */
     public final void llvm(Writer writer) throws IOException {
-        // declare LLVM intrinsics we might use
-        writer.append("declare double @llvm.pow.f64(double %Val, double %Power)\n");
-        writer.append("declare double @llvm.log.f64(double %Val)\n");
-        writer.append("declare double @llvm.exp.f64(double %Val)\n");
-        writer.append("declare double @llvm.sin.f64(double %Val)\n");
-        writer.append("declare double @llvm.cos.f64(double %Val)\n\n");
+        var t = llvmType();
+        llvmDeclarations(dag().precision(), writer);
 
         // mll signature
-        writer.append("define void @mll(double* noundef noalias %_input, double* noundef noalias %_output) {\n");
+        writer.append(format("define void @mll(%s* noundef noalias %%_input, %s* noundef noalias %%_output) {\n", t, t));
 
         // load vars
         var map = new HashMap<Op, String>();
         int i   = 0;
         for (var var : freeVars()) {
             var name = format("%%%s", var);
-            var gep  = format("\t%%_in%d = getelementptr inbounds double, double* %%_input, i64 %d\n", i, i);
-            var load = format("\t%s = load double, double* %%_in%d\n", name, i);
+            var gep  = format("\t%%_in%d = getelementptr inbounds %s, %s* %%_input, i64 %d\n", i, t, t, i);
+            var load = format("\t%s = load %s, %s* %%_in%d\n", name, t, t, i);
             writer.append(gep + load);
             map.put(var, name);
             ++i;
         }
 
-        // emit final store and recursively the body to compute it
+        // emit the operators in the order of the memory plan (the order the interpreter evaluates them in), then
+        // the final store
+        for (var op : MemoryPlan.of(this).order()) op.llvm(map, writer);
         llvm_store(map, writer);
 
         // ret void
@@ -303,6 +455,22 @@ public abstract class Op {
         writer.append("}\n");
     }
 
+    /** Declare the LLVM intrinsics operators might use. */
+    static void llvmDeclarations(Precision precision, Writer writer) throws IOException {
+        var t = precision.type();
+        writer.append(format("declare %s %s(%s %%Val, %s %%Power)\n", t, precision.intrinsic("pow"), t, t));
+        for (var name : new String[] { "log", "exp", "sin", "cos", "fabs" })
+            writer.append(format("declare %s %s(%s %%Val)\n", t, precision.intrinsic(name), t));
+        for (var name : new String[] { "maxnum", "minnum" })
+            writer.append(format("declare %s %s(%s %%Val0, %s %%Val1)\n", t, precision.intrinsic(name), t, t));
+        writer.append(format("declare %s %s(%s %%A, %s %%B, %s %%C)\n", t, precision.intrinsic("fma"), t, t, t));
+        writer.append(format("declare %s %s(%s %%Val)\n", t, precision.libm("log1p"), t));
+        writer.append("\n");
+    }
+
+    /** LLVM type of this operator's output (see Precision#type). */
+    protected final String llvmType() { return dag().precision().type(); }
+
     /** Same as above but returns the LLVM code as String. */
     public final String llvm() {
         var writer = new StringWriter();
@@ -329,7 +497,7 @@ public abstract class Op {
     /** Generate LLVM code that stores this operator's output in location _output. */
     protected void llvm_store(HashMap<Op, String> cache, Writer writer) throws IOException {
         var res = llvm(cache, writer);
-        writer.append(format("\tstore double %s, double* %%_output\n", res));
+        writer.append(format("\tstore %s %s, %s* %%_output\n", llvmType(), res, llvmType()));
     }
 
     /** Return LLVM variable that holds this operator's output (not cached).
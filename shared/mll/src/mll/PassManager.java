@@ -0,0 +1,175 @@
+package mll;
+
+import static java.lang.String.format;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/** Runs rewrite passes over a compute graph and returns the optimized root.
+ *
+ * The graph is rewritten bottom-up in a single traversal: each operator is first rebuilt on its rewritten inputs
+ * (through its smart constructor, see Op#rebuild) and then all passes are applied to it until none of them changes it
+ * any more. Passes are local rewrites, so they are independent of DAG#doRewrite(); in a rewriting DAG, the results
+ * of the passes are simplified further by the smart constructors.
+ *
+ * Optionally, the DAG is pruned afterwards, i.e., it forgets all operators that are no longer reachable from the
+ * optimized root (see DAG#prune). Operators of other roots in the same DAG are forgotten as well unless they are
+ * passed to run.
+ */
+public class PassManager {
+    /** A local rewrite: returns an equivalent replacement of an operator (whose inputs are already rewritten) or the
+     * operator itself. */
+    public record Pass(String name, UnaryOperator<Op> rewrite) {}
+
+    /** Replace operators whose inputs are all literals by the literal of their value. */
+    public static final Pass CONSTANT_FOLDING = new Pass("constant-folding", PassManager::fold);
+
+    /** Apply identity (x + 0, x * 1, ...) and annihilator (x * 0) laws. Like the smart constructors, this ignores
+     * that x * 0 is NaN for infinite x. */
+    public static final Pass ALGEBRAIC = new Pass("algebraic", PassManager::simplify);
+
+    /** Order the inputs of commutative operators (literals last, otherwise by id), so that e.g. x + y and y + x are
+     * unified into one operator. */
+    public static final Pass CANONICALIZE = new Pass("canonicalize", PassManager::canonicalize);
+
+    /** Maximum number of rewrites of a single operator (guards against passes undoing each other). */
+    static final int MAX_REWRITES = 64;
+
+    private final List<Pass> passes_;
+    private final boolean    prune_;
+
+    /** Number of rewrites by each pass in the last run, nodes before and after, and pruned operators. */
+    private final int[] rewrites_;
+    private int         before_, after_, pruned_;
+
+    public PassManager(boolean prune, Pass... passes) {
+        passes_   = List.of(passes);
+        prune_    = prune;
+        rewrites_ = new int[passes.length];
+    }
+
+    /** All passes, followed by pruning. */
+    public static PassManager standard() { return new PassManager(true, CONSTANT_FOLDING, ALGEBRAIC, CANONICALIZE); }
+
+    /** Return the optimized root. If pruning, the DAG only keeps the operators reachable from the result and from
+     * keep afterwards. */
+    public Op run(Op root, Op... keep) {
+        Arrays.fill(rewrites_, 0);
+        var order = root.topo();
+        before_   = order.length;
+
+        var map = new HashMap<Op, Op>();
+        for (var op : order) {
+            var inputs  = new Op[op.numInputs()];
+            var changed = false;
+            for (int i = 0, e = inputs.length; i != e; ++i) {
+                inputs[i] = map.get(op.input(i));
+                changed  |= inputs[i] != op.input(i);
+            }
+            map.put(op, rewrite(changed ? op.rebuild(op.dag(), inputs) : op));
+        }
+
+        var res = map.get(root);
+        after_  = res.topo().length;
+        pruned_ = 0;
+        if (prune_) {
+            var roots = new ArrayList<Op>(Arrays.asList(keep));
+            roots.add(res);
+            pruned_ = res.dag().prune(roots.toArray(new Op[roots.size()]));
+        }
+        return res;
+    }
+
+    /** Same as above for a Grad (the result is a Grad with the same results and variables). */
+    public Grad run(Grad root, Op... keep) { return (Grad) run((Op) root, keep); }
+
+    /** Summary of the last run. */
+    public String report() {
+        var report = new StringBuilder(format("nodes %d -> %d", before_, after_));
+        for (int i = 0; i != rewrites_.length; ++i) report.append(format(", %s %d", passes_.get(i).name(), rewrites_[i]));
+        if (prune_) report.append(format(", pruned %d", pruned_));
+        return report.toString();
+    }
+
+    // internal: apply all passes to op until none changes it
+    private Op rewrite(Op op) {
+        for (int n = 0; n != MAX_REWRITES; ) {
+            var changed = false;
+            for (int i = 0, e = passes_.size(); i != e && n != MAX_REWRITES; ++i) {
+                var res = passes_.get(i).rewrite().apply(op);
+                if (res != op) {
+                    op = res;
+                    ++rewrites_[i];
+                    ++n;
+                    changed = true;
+                }
+            }
+            if (!changed) break;
+        }
+        return op;
+    }
+
+    // -- Passes ---------------------------------------------------------------------------------
+
+    static Op fold(Op op) {
+        var value = op.constant();
+        return value == null ? op : op.lit(value);
+    }
+
+    static Op simplify(Op op) {
+        if (op instanceof Add add) {
+            if (Lit.is(add.lhs(), 0.)) return add.rhs();
+            if (Lit.is(add.rhs(), 0.)) return add.lhs();
+        } else if (op instanceof Sub sub) {
+            if (Lit.is(sub.rhs(), 0.)) return sub.lhs();
+            if (Lit.is(sub.lhs(), 0.)) return Neg.c(sub.rhs());
+        } else if (op instanceof Mul mul) {
+            var l = mul.lhs();
+            var r = mul.rhs();
+            if (Lit.is(l, 1.)) return r;
+            if (Lit.is(r, 1.)) return l;
+            if (Lit.is(l, 0.) || Lit.is(r, 0.)) return op.lit0();
+            if (Lit.is(l, -1.)) return Neg.c(r);
+            if (Lit.is(r, -1.)) return Neg.c(l);
+        } else if (op instanceof Div div) {
+            if (Lit.is(div.rhs(), 1.)) return div.lhs();
+            if (Lit.is(div.rhs(), -1.)) return Neg.c(div.lhs());
+        } else if (op instanceof Neg neg) {
+            if (neg.arg() instanceof Neg inner) return inner.arg();
+        } else if (op instanceof Fma) {
+            var a = op.input(0);
+            var b = op.input(1);
+            var c = op.input(2);
+            if (Lit.is(a, 0.) || Lit.is(b, 0.)) return c;
+            if (Lit.is(a, 1.)) return Add.c(b, c);
+            if (Lit.is(b, 1.)) return Add.c(a, c);
+            if (Lit.is(a, -1.)) return Sub.c(c, b);
+            if (Lit.is(b, -1.)) return Sub.c(c, a);
+            if (Lit.is(c, 0.)) return Mul.c(a, b);
+        }
+        return op;
+    }
+
+    static Op canonicalize(Op op) {
+        if (op instanceof Add || op instanceof Mul || op instanceof LogSumExp || op instanceof Fma) {
+            var a = op.input(0);
+            var b = op.input(1);
+            if (before(b, a)) {
+                var inputs = op.inputs().clone();
+                inputs[0] = b;
+                inputs[1] = a;
+                return op.rebuild(op.dag(), inputs);
+            }
+        }
+        return op;
+    }
+
+    // internal: canonical order of commutative inputs
+    private static boolean before(Op a, Op b) {
+        boolean aLit = a instanceof Lit, bLit = b instanceof Lit;
+        return aLit != bLit ? bLit : a.id() < b.id();
+    }
+}
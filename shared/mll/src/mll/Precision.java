@@ -0,0 +1,55 @@
+package mll;
+
+import static java.lang.String.format;
+
+/** Floating-point precision with which a compute graph is evaluated and compiled (see DAG#precision).
+ *
+ * Compiled (LLVM) code computes and stores all values in the LLVM type of the precision. On the Java side, operators
+ * compute in double and every result is rounded to the precision (see round), which matches 32-bit arithmetic for
+ * +, -, * and /, but slots and scratch buffers are doubles. The memory and bandwidth savings of F32 on the Java side
+ * come from 32-bit data only: F32 datasets store float columns (see Dataset), and MemoryPlan#evalBatch(float[]...)
+ * takes and returns float columns without converting them as a whole.
+ */
+public enum Precision {
+    /** 64-bit IEEE double precision (the default). */
+    F64("double", "f64"),
+
+    /** 32-bit IEEE single precision: halves the size of values and doubles the number of SIMD lanes. */
+    F32("float", "f32");
+
+    /** Name of the LLVM type. */
+    private final String type_;
+
+    /** Suffix of LLVM intrinsics for this type. */
+    private final String suffix_;
+
+    Precision(String type, String suffix) {
+        type_   = type;
+        suffix_ = suffix;
+    }
+
+    /** LLVM type of values, i.e., "double" or "float". */
+    public String type() { return type_; }
+
+    /** Name of the LLVM intrinsic with the given name for this precision, e.g., "@llvm.exp.f32". */
+    public String intrinsic(String name) { return format("@llvm.%s.%s", name, suffix_); }
+
+    /** Name of the C math library function with the given name for this precision, e.g., "@log1pf". */
+    public String libm(String name) { return this == F32 ? "@" + name + "f" : "@" + name; }
+
+    /** Round f to the nearest value representable in this precision. */
+    public double round(double f) { return this == F32 ? (float) f : f; }
+
+    /** Round all values in place (see round). */
+    public void round(double[] values) {
+        if (this == F32) for (int i = 0; i != values.length; ++i) values[i] = (float) values[i];
+    }
+
+    /** LLVM literal for f. Floats are written as the hex representation of the equivalent double as they are only
+     * accepted in decimal notation by LLVM if they are exactly representable. Non-finite values (e.g., folded from
+     * log(0) or 1/0) have no decimal notation in LLVM and are written in hex as well. */
+    public String literal(double f) {
+        if (this == F32 || !Double.isFinite(f)) return format("0x%016X", Double.doubleToRawLongBits(round(f)));
+        return Double.toString(f);
+    }
+}
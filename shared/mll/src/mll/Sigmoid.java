@@ -0,0 +1,52 @@
+package mll;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+
+/** Operator to compute the logistic function 1 / (1 + exp(-x)) of its input.
+ * Computed as 1 / (1 + exp(-x)) for x &gt;= 0 and exp(x) / (1 + exp(x)) otherwise, so exp never overflows. */
+public class Sigmoid extends UnOp {
+    Sigmoid(Op arg) { super(arg); }
+
+    // Smart constructor
+    public static Op c(Op x) {
+        var dag = x.dag();
+        return dag.unify(new Sigmoid(x));
+    }
+
+    /** Numerically stable logistic function. */
+    static double sigmoid(double x) {
+        if (x >= 0.) return 1. / (1. + Math.exp(-x));
+        var e = Math.exp(x);
+        return e / (1. + e);
+    }
+
+    // Required implementation (see Op#eval_)
+    @Override protected double eval_(double[] inVals) {
+        return sigmoid(inVals[0]);
+    }
+
+    // Required implementation (see Op#diff): sigmoid(x) * sigmoid(-x), i.e., sigmoid(x) * (1 - sigmoid(x))
+    @Override protected Op diff(int inputIdx) { return mul(Sigmoid.c(arg().neg())); }
+
+    // Required implementation (see Op#llvm_)
+    @Override protected String llvm_(HashMap<Op, String> map, Writer writer) throws IOException {
+        var t = llvmType();
+        var p = dag().precision();
+        var a = arg().llvm(map, writer);
+        var x = format("%%_%d", id());
+        var one = p.literal(1.);
+        writer.append(format("\t%s.abs = call %s %s(%s %s)\n", x, t, p.intrinsic("fabs"), t, a));
+        writer.append(format("\t%s.neg = fneg %s %s.abs\n", x, t, x));
+        writer.append(format("\t%s.exp = call %s %s(%s %s.neg)\n", x, t, p.intrinsic("exp"), t, x));
+        writer.append(format("\t%s.den = fadd %s %s, %s.exp\n", x, t, one, x));
+        writer.append(format("\t%s.pos = fdiv %s %s, %s.den\n", x, t, one, x));        // sigmoid(|x|)
+        writer.append(format("\t%s.sym = fdiv %s %s.exp, %s.den\n", x, t, x, x));      // sigmoid(-|x|)
+        writer.append(format("\t%s.cmp = fcmp oge %s %s, %s\n", x, t, a, p.literal(0.)));
+        writer.append(format("\t%s = select i1 %s.cmp, %s %s.pos, %s %s.sym\n", x, x, t, x, t, x));
+        return x;
+    }
+}
@@ -0,0 +1,55 @@
+package mll;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+
+/** Operator to compute log(1 + exp(x)) of its input.
+ * Computed as max(x, 0) + log1p(exp(-|x|)), which neither overflows for large x nor loses precision for small x. */
+public class Softplus extends UnOp {
+    Softplus(Op arg) { super(arg); }
+
+    // Smart constructor
+    public static Op c(Op x) {
+        var dag = x.dag();
+        return dag.unify(new Softplus(x));
+    }
+
+    /** log(1 + exp(-|x|)), the correction term shared by the stable log-sum-exp forms. */
+    static double log1pExpNegAbs(double x) { return Math.log1p(Math.exp(-Math.abs(x))); }
+
+    // Required implementation (see Op#eval_)
+    @Override protected double eval_(double[] inVals) {
+        var x = inVals[0];
+        return Math.max(x, 0.) + log1pExpNegAbs(x);
+    }
+
+    // Required implementation (see Op#diff)
+    @Override protected Op diff(int inputIdx) { return arg().sigmoid(); }
+
+    // Required implementation (see Op#llvm_)
+    @Override protected String llvm_(HashMap<Op, String> map, Writer writer) throws IOException {
+        var t = llvmType();
+        var a = arg().llvm(map, writer);
+        var x = format("%%_%d", id());
+        writer.append(format("\t%s.max = call %s %s(%s %s, %s %s)\n", x, t, dag().precision().intrinsic("maxnum"), t, a, t,
+                dag().precision().literal(0.)));
+        var l = llvmLog1pExpNegAbs(this, a, writer);
+        writer.append(format("\t%s = fadd %s %s.max, %s\n", x, t, x, l));
+        return x;
+    }
+
+    /** Emit code computing log1p(exp(-|a|)) for op; returns the LLVM variable holding it. */
+    static String llvmLog1pExpNegAbs(Op op, String a, Writer writer) throws IOException {
+        var t = op.llvmType();
+        var p = op.dag().precision();
+        var x = format("%%_%d", op.id());
+        writer.append(format("\t%s.abs = call %s %s(%s %s)\n", x, t, p.intrinsic("fabs"), t, a));
+        writer.append(format("\t%s.neg = fneg %s %s.abs\n", x, t, x));
+        writer.append(format("\t%s.exp = call %s %s(%s %s.neg)\n", x, t, p.intrinsic("exp"), t, x));
+        writer.append(format("\t%s.l1p = call %s %s(%s %s.exp)\n", x, t, p.libm("log1p"), t, x));
+        return x + ".l1p";
+    }
+}
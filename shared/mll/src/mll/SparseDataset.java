@@ -0,0 +1,159 @@
+package mll;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/** A labelled dataset with sparse features in compressed sparse row (CSR) format.
+ *
+ * Only nonzero feature values are stored: the features of row r are index(i) / value(i) for start(r) &lt;= i &lt; end(r).
+ * Feature indices are 1-based (as the names x1,...,xD of LogReg) and ascending within a row.
+ */
+public class SparseDataset {
+    /** Number of features (D). */
+    private final int      dim_;
+
+    /** Row r has its features at positions rowStart_[r] until rowStart_[r+1] (exclusive). */
+    private final int[]    rowStart_;
+
+    /** Feature indices and values of all rows. */
+    private final int[]    indices_;
+    private final double[] values_;
+
+    /** Label of each row. */
+    private final double[] labels_;
+
+    public SparseDataset(int dim, int[] rowStart, int[] indices, double[] values, double[] labels) {
+        dim_      = dim;
+        rowStart_ = rowStart;
+        indices_  = indices;
+        values_   = values;
+        labels_   = labels;
+    }
+
+    /** Convert a dense dataset with columns x1,...,xD,y. */
+    public static SparseDataset of(Dataset data) {
+        int dim  = data.cols() - 1;
+        int rows = data.rows();
+        int nnz  = 0;
+        for (int r = 0; r != rows; ++r)
+            for (int c = 0; c != dim; ++c)
+                if (data.get(r, c) != 0) ++nnz;
+
+        var builder = new Builder(dim, rows, nnz);
+        for (int r = 0; r != rows; ++r) {
+            for (int c = 0; c != dim; ++c) {
+                var value = data.get(r, c);
+                if (value != 0) builder.add(c + 1, value);
+            }
+            builder.endRow(data.get(r, dim));
+        }
+        return builder.build();
+    }
+
+    /** Read a file in LIBSVM format, i.e., one row per line: {@code y index:value index:value ...} with 1-based,
+     * strictly ascending indices. dim is the number of features (indices must not exceed it). Labels must be binary:
+     * -1 or 0 (both read as 0, the usual LIBSVM convention being -1/+1) or 1. */
+    public static SparseDataset readLibsvm(String file, int dim) throws IOException {
+        var builder = new Builder(dim, 1024, 1024);
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.strip();
+                if (line.isEmpty()) continue;
+                var tokens = line.split("\\s+");
+                double label = Double.parseDouble(tokens[0]);
+                if (label != -1 && label != 0 && label != 1)
+                    throw new IOException(file + ": label must be -1, 0 or 1: " + tokens[0]);
+                int previous = 0;
+                for (int i = 1; i != tokens.length; ++i) {
+                    int colon = tokens[i].indexOf(':');
+                    int index = Integer.parseInt(tokens[i].substring(0, colon));
+                    if (index < 1 || index > dim)
+                        throw new IOException(file + ": feature index out of range 1.." + dim + ": " + tokens[i]);
+                    if (index <= previous)
+                        throw new IOException(file + ": feature indices must be ascending and unique: " + line);
+                    previous = index;
+                    builder.add(index, Double.parseDouble(tokens[i].substring(colon + 1)));
+                }
+                builder.endRow(label == 1 ? 1. : 0.);
+            }
+        }
+        return builder.build();
+    }
+
+    public int dim() { return dim_; }
+    public int rows() { return labels_.length; }
+
+    /** Number of stored (nonzero) values. */
+    public int nnz() { return indices_.length; }
+
+    /** Number of nonzero features of row r. */
+    public int nnz(int r) { return rowStart_[r + 1] - rowStart_[r]; }
+
+    /** Position of the first feature of row r. */
+    public int start(int r) { return rowStart_[r]; }
+
+    /** Position after the last feature of row r. */
+    public int end(int r) { return rowStart_[r + 1]; }
+
+    /** Feature index (1-based) at position i. */
+    public int index(int i) { return indices_[i]; }
+
+    /** Feature value at position i. */
+    public double value(int i) { return values_[i]; }
+
+    /** Label of row r. */
+    public double label(int r) { return labels_[r]; }
+
+    /** Builds a SparseDataset row by row. */
+    public static class Builder {
+        private final int dim_;
+        private int[]     rowStart_;
+        private int[]     indices_;
+        private double[]  values_;
+        private double[]  labels_;
+        private int       rows_ = 0;
+        private int       nnz_  = 0;
+
+        /** Create a builder for dim features, with initial capacity for the given number of rows and values. */
+        public Builder(int dim, int rows, int nnz) {
+            dim_      = dim;
+            rowStart_ = new int[Math.max(1, rows) + 1];
+            indices_  = new int[Math.max(1, nnz)];
+            values_   = new double[Math.max(1, nnz)];
+            labels_   = new double[Math.max(1, rows)];
+        }
+
+        /** Add a feature to the current row (indices must be ascending). */
+        public Builder add(int index, double value) {
+            if (nnz_ > rowStart_[rows_] && index <= indices_[nnz_ - 1])
+                throw new IllegalArgumentException("feature indices must be ascending and unique within a row: " + index);
+            if (nnz_ == indices_.length) {
+                indices_ = Arrays.copyOf(indices_, 2 * nnz_);
+                values_  = Arrays.copyOf(values_, 2 * nnz_);
+            }
+            indices_[nnz_]  = index;
+            values_[nnz_++] = value;
+            return this;
+        }
+
+        /** Finish the current row with the given label. */
+        public Builder endRow(double label) {
+            if (rows_ == labels_.length) {
+                labels_   = Arrays.copyOf(labels_, 2 * rows_);
+                rowStart_ = Arrays.copyOf(rowStart_, 2 * rows_ + 1);
+            }
+            labels_[rows_++] = label;
+            rowStart_[rows_] = nnz_;
+            return this;
+        }
+
+        public SparseDataset build() {
+            return new SparseDataset(dim_, Arrays.copyOf(rowStart_, rows_ + 1), Arrays.copyOf(indices_, nnz_),
+                                     Arrays.copyOf(values_, nnz_), Arrays.copyOf(labels_, rows_));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package mll;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+
+/** Operator to subtract the second input from the first. */
+public class Sub extends BinOp {
+    Sub(Op lhs, Op rhs) { super(lhs, rhs); }
+
+    // Smart constructor
+    public static Op c(Op x, Op y) {
+        var dag = x.dag();
+        if (dag.doRewrite()) {
+            // 1 - sigmoid(t) = sigmoid(-t), which does not cancel for large t
+            if (Lit.is(x, 1.) && y instanceof Sigmoid s) return Sigmoid.c(Neg.c(s.arg()));
+        }
+        return dag.unify(new Sub(x, y));
+    }
+
+    // Custom operator string
+    @Override public String opString() { return "-"; }
+
+    // Required implementation (see Op#eval_)
+    @Override protected double eval_(double[] inVals) {
+        return inVals[0] - inVals[1];
+    }
+
+    // Specialized batch loop (see Op#evalBatch_)
+    @Override protected void evalBatch_(double[][] inCols, double[] out) {
+        var l = inCols[0];
+        var r = inCols[1];
+        for (int i = 0, e = out.length; i != e; ++i) out[i] = l[i] - r[i];
+    }
+
+    // Required implementation (see Op#diff)
+    @Override protected Op diff(int inputIdx) { return inputIdx == 0 ? lit1() : lit(-1.); }
+
+    // Required implementation (see Op#llvm_)
+    @Override protected String llvm_(HashMap<Op, String> map, Writer writer) throws IOException {
+        var l = lhs().llvm(map, writer);
+        var r = rhs().llvm(map, writer);
+        var x = format("%%_%d", id());
+        writer.append(format("\t%s = fsub %s %s, %s\n", x, llvmType(), l, r));
+        return x;
+    }
+}
@@ -0,0 +1,80 @@
+package mll;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+/** Deterministic synthetic data for logistic regression of any size.
+ *
+ * Each feature is nonzero with probability 1 - sparsity and then drawn from a standard normal distribution. Labels
+ * are drawn from a logistic model with hidden weights, so that a trained model can actually learn something. The same
+ * seed always yields the same data.
+ */
+public class Synthetic {
+    /** Generate rows examples with dim features (columns x1,...,xD,y). */
+    public static Dataset dense(int rows, int dim, double sparsity, long seed) {
+        var columns = new double[dim + 1][rows];
+        generate(rows, dim, sparsity, seed, (r, c, value) -> columns[c][r] = value);
+        return new Dataset(columns);
+    }
+
+    /** Same as above, but only stores the nonzero features. */
+    public static SparseDataset sparse(int rows, int dim, double sparsity, long seed) {
+        var builder = new SparseDataset.Builder(dim, rows, (int) Math.min(Integer.MAX_VALUE - 8, (long) ((long) rows * dim * (1 - sparsity)) + 1));
+        generate(rows, dim, sparsity, seed, (r, c, value) -> {
+            if (c < dim) {
+                if (value != 0) builder.add(c + 1, value);
+            } else {
+                builder.endRow(value);
+            }
+        });
+        return builder.build();
+    }
+
+    /** Write data to file as CSV (one row per line, as read by LogReg.readCsv and Dataset.readCsv). */
+    public static void writeCsv(Dataset data, Path file) throws IOException {
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            var line = new StringBuilder();
+            for (int r = 0, rows = data.rows(); r != rows; ++r) {
+                line.setLength(0);
+                for (int c = 0, cols = data.cols(); c != cols; ++c) {
+                    if (c != 0) line.append(',');
+                    line.append(data.get(r, c));
+                }
+                writer.append(line).append('\n');
+            }
+        }
+    }
+
+    /** Receives generated values: column dim holds the label. */
+    interface Sink { void accept(int row, int col, double value); }
+
+    // internal: generates all values row by row, each row from its own stream split off the seeded one
+    private static void generate(int rows, int dim, double sparsity, long seed, Sink sink) {
+        var random = new SplittableRandom(seed);
+        var w = new double[dim + 1]; // hidden model, w[0] is the bias
+        for (int i = 0; i <= dim; ++i) w[i] = gaussian(random);
+
+        for (int r = 0; r != rows; ++r) {
+            var rowRandom = random.split();
+            double eta = w[0];
+            for (int c = 0; c != dim; ++c) {
+                double value = rowRandom.nextDouble() < sparsity ? 0. : gaussian(rowRandom);
+                eta += w[c + 1] * value;
+                sink.accept(r, c, value);
+            }
+            double p = 1. / (1. + Math.exp(-eta));
+            sink.accept(r, dim, rowRandom.nextDouble() < p ? 1. : 0.);
+        }
+    }
+
+    // internal: standard normal value (Box-Muller)
+    private static double gaussian(SplittableRandom random) {
+        double u = 1. - random.nextDouble(); // in (0, 1]
+        double v = random.nextDouble();
+        return Math.sqrt(-2. * Math.log(u)) * Math.cos(2. * Math.PI * v);
+    }
+}
@@ -13,7 +13,8 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.function.Function;
+import java.util.function.DoubleUnaryOperator;
+import java.util.stream.IntStream;
 
 import org.knowm.xchart.BitmapEncoder;
 import org.knowm.xchart.QuickChart;
@@ -24,6 +25,12 @@ import guru.nidi.graphviz.engine.Graphviz;
 
 public class Util {
 
+	/** Maximum number of points per series handed to XChart; longer series are downsampled (see downsample). */
+	static final int MAX_PLOT_POINTS = 2000;
+
+	/** Minimum number of points for which gety samples a function in parallel. */
+	static final int PARALLEL_THRESHOLD = 10000;
+
 	/**
 	 * Plot a single function y(x) and store the result as a PNG file on disk.
 	 */
@@ -83,29 +90,40 @@ public class Util {
 
 	/** Compile the specified LLVM program + bind it to main.c using clang */
    public static void clang(String filename) throws IOException {
+        clang(filename, "main.c");
+    }
+
+	/** Compile the specified LLVM program + bind it to the specified driver in src (e.g., train.c) using clang */
+   public static void clang(String filename, String driver) throws IOException {
+        clang(filename, driver, Precision.F64);
+    }
+
+	/** Same as above for LLVM code generated with the specified precision */
+   public static void clang(String filename, String driver, Precision precision) throws IOException {
+        var real = precision == Precision.F32 ? "-DMLL_F32" : "-DMLL_F64";
         String[] command;
         System.out.println("Generating binary: " + filename);
         if (isLLVMAvailable()) {
         	Files.createDirectories(Paths.get("out/bin"));
             command = new String[] { 
-                    "clang", "-O3", "-lm",
-                    "src/main.c", 
+                    "clang", "-O3", "-lm", real,
+                    "src/" + driver, 
                     "out/llvm/" + filename + ".ll",
                     "-o", "out/bin/" + filename};
         } else {
         	Files.createDirectories(Paths.get("home", "jovyan", "mll", "out", "bin"));
             command = new String[] { 
                     "docker", "exec", "-t", "mll_docker", 
-                    "clang", "-O3", "-lm",
-                    "/home/jovyan/mll/src/main.c", 
+                    "clang", "-O3", "-lm", real,
+                    "/home/jovyan/mll/src/" + driver, 
                     "/home/jovyan/mll/out/llvm/" + filename + ".ll",
                     "-o", "/home/jovyan/mll/out/bin/" + filename};
         }
         runCommand(command);
     }
 
-   	/** Runs the specified program generated by clang */
-   	public static void runBinary(String filename, String... args) {
+   	/** Runs the specified program generated by clang and returns its output */
+   	public static String runBinary(String filename, String... args) {
    		var command = new ArrayList<String>();
    		if (isLLVMAvailable()) {
    			command.add("out/bin/" + filename);
@@ -114,7 +132,7 @@ public class Util {
    			command.add("/home/jovyan/mll/out/bin/" + filename);
    		}
    		command.addAll(Arrays.asList(args));
-        runCommand(command.toArray(new String[0]));
+        return runCommand(command.toArray(new String[0]));
    	}
    
 	/**
@@ -187,23 +205,24 @@ public class Util {
 		return x;
 	}
 	
-	public static double[] gety(double[] x, final Function<Double, Double> f) {
-		int length = x.length;
-		var y = new double[length];
-		for (int i = 0; i < length; i++) {
-			y[i] = f.apply(x[i]);
-		}
+	/** Sample f at all points of x. Large grids are sampled in parallel, so f must not have side effects. */
+	public static double[] gety(double[] x, final DoubleUnaryOperator f) {
+		var y = new double[x.length];
+		var range = IntStream.range(0, x.length);
+		if (x.length >= PARALLEL_THRESHOLD) range = range.parallel();
+		range.forEach(i -> y[i] = f.applyAsDouble(x[i]));
 		return y;
 	}
-	
+
+	/** Sample the function computed by out (which must have exactly one free variable) at all points of x. */
 	public static double[] gety(double[] x, final Op out) {
-		return gety(x, x_ -> out.eval(x_));
+		return out.evalBatch(x);
 	}
 
 	public static double[] getTangent(double[] x, double at, final Op dout) {
 		var env = new HashMap<Op,Double>();
 		var f_at = dout.eval(env, at);
-		var df_at = ((Grad)dout).results()[1];
+		var df_at = ((Grad)dout).outputs(env)[1];
 		return Util.line(x, df_at, -at*df_at + f_at);
 	}
 	
@@ -211,13 +230,86 @@ public class Util {
 		return gety(x, x_ -> x_*slope + offset);
 	}
 	
+	/**
+	 * Reduce the series y(x) to at most threshold points using the largest-triangle-three-buckets algorithm, which
+	 * keeps the visual shape of the series (peaks and valleys) intact. x must be sorted. Returns {x, y}.
+	 */
+	public static double[][] downsample(double[] x, double[] y, int threshold) {
+		var index = downsampleIndex(x, threshold, y);
+		return new double[][] { select(x, index), select(y, index) };
+	}
+
+	/**
+	 * Indices of the points kept when downsampling the series ys[k](x) (sharing x) to at most threshold points. Same
+	 * as above, but the point of each bucket spans the largest triangles summed over all series, so one index set
+	 * keeps the peaks and valleys of every series and the series stay aligned on the same x values.
+	 */
+	static int[] downsampleIndex(double[] x, int threshold, double[]... ys) {
+		int n = x.length;
+		if (threshold >= n || threshold < 3) return IntStream.range(0, n).toArray();
+
+		var index = new int[threshold];
+		index[0] = 0;
+
+		// first and last point are kept, the others are split into threshold-2 buckets
+		double bucketSize = (double) (n - 2) / (threshold - 2);
+		var avgY = new double[ys.length];
+		int a = 0; // previously selected point
+		for (int i = 0; i < threshold - 2; i++) {
+			// average of the next bucket
+			int nextFrom = (int) ((i + 1) * bucketSize) + 1;
+			int nextTo   = Math.min((int) ((i + 2) * bucketSize) + 1, n);
+			double avgX = 0;
+			Arrays.fill(avgY, 0);
+			for (int j = nextFrom; j < nextTo; j++) {
+				avgX += x[j];
+				for (int k = 0; k < ys.length; k++) avgY[k] += ys[k][j];
+			}
+			avgX /= nextTo - nextFrom;
+			for (int k = 0; k < ys.length; k++) avgY[k] /= nextTo - nextFrom;
+
+			// point of the current bucket spanning the largest triangles with a and the averages
+			int from = (int) (i * bucketSize) + 1;
+			int to   = (int) ((i + 1) * bucketSize) + 1;
+			double maxArea = -1;
+			int best = from;
+			for (int j = from; j < to; j++) {
+				double area = 0;
+				for (int k = 0; k < ys.length; k++) {
+					var y = ys[k];
+					area += Math.abs((x[a] - avgX) * (y[j] - y[a]) - (x[a] - x[j]) * (avgY[k] - y[a]));
+				}
+				if (area > maxArea) {
+					maxArea = area;
+					best = j;
+				}
+			}
+			index[i + 1] = best;
+			a = best;
+		}
+
+		index[threshold - 1] = n - 1;
+		return index;
+	}
+
+	// values[index[i]] for all i
+	private static double[] select(double[] values, int[] index) {
+		var selected = new double[index.length];
+		for (int i = 0; i < index.length; i++) selected[i] = values[index[i]];
+		return selected;
+	}
+
 	private static XYChart getChart(double[] x, double[] y, String plotName) {
-		return QuickChart.getChart(plotName, "", "", "f", x, y);
+		var xy = downsample(x, y, MAX_PLOT_POINTS);
+		return QuickChart.getChart(plotName, "", "", "f", xy[0], xy[1]);
 	}
 
+	// both series are downsampled with the same indices (see downsampleIndex), so they are plotted at the same x
 	private static XYChart getChart(double[] x, double[] y1, double[] y2, String plotName) {
-		XYChart chart = getChart(x, y1, plotName);
-		chart.addSeries("g", x, y2);
+		var index = downsampleIndex(x, MAX_PLOT_POINTS, y1, y2);
+		var sx = select(x, index);
+		XYChart chart = QuickChart.getChart(plotName, "", "", "f", sx, select(y1, index));
+		chart.addSeries("g", sx, select(y2, index));
 		chart.getStyler().setMarkerSize(0);
 		return chart;
 	}
@@ -246,23 +338,26 @@ public class Util {
 		}
 	}
 
-	private static void printInputStream(InputStream inputStream) throws IOException {
+	private static String printInputStream(InputStream inputStream) throws IOException {
+		var output = new StringBuilder();
 		try (var isr = new InputStreamReader(inputStream); var reader = new BufferedReader(isr);) {
 			String line;
 			while ((line = reader.readLine()) != null) {
 				System.out.println(line);
+				output.append(line).append('\n');
 			}
 		}
+		return output.toString();
 	}
 	
-	private static void runCommand(String[] command) {
+	private static String runCommand(String[] command) {
 		try {
 			ProcessBuilder processBuilder = new ProcessBuilder(command);
 			Process process = processBuilder.start();
 			var inputStream = process.getInputStream();
 			var errorStream = process.getErrorStream();
 
-			printInputStream(inputStream);
+			var output = printInputStream(inputStream);
 			printInputStream(errorStream);
 
 			int exitCode = process.waitFor();
@@ -270,6 +365,7 @@ public class Util {
 			if (exitCode != 0) {
 				System.err.println("Program execution failed with exit code " + exitCode);
 			}
+			return output;
 
 		} catch (IOException | InterruptedException e) {
 			throw new RuntimeException(e);
@@ -28,6 +28,8 @@ public class Var extends Op {
 
     public @Override String toString() { return name(); }
 
+    @Override Op rebuild(DAG dag, Op[] inputs) { return c(dag, name()); }
+
     @Override public boolean equals(Object obj) {
     	/// ensure that variables with different names are actually different
     	return super.equals(obj) && name().equals(((Var) obj).name());
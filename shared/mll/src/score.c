@@ -0,0 +1,123 @@
+#include <ctype.h>
+#include <math.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <time.h>
+
+// driver for quantized scoring kernels (see QuantizedScorer#llvm)
+extern const int64_t mll_num_cols;
+extern const float mll_scales[];
+void mll_score(int8_t* restrict x, int64_t rows, float* restrict out);
+void mll_classify(int8_t* restrict x, int64_t rows, int8_t* restrict out);
+
+// exit with an error message if an allocation failed
+void* checked(void* p) {
+    if (p == NULL) {
+        perror("out of memory");
+        exit(EXIT_FAILURE);
+    }
+    return p;
+}
+
+// read all rows of a CSV file with mll_num_cols features and a label per line (blank lines are skipped)
+// features are quantized with mll_scales (rounded and clamped to [-127, 127]), labels are stored in labels
+int8_t* read_csv(const char* filename, int64_t* rows, float** labels) {
+    FILE* file = fopen(filename, "r");
+    if (file == NULL) {
+        perror(filename);
+        exit(EXIT_FAILURE);
+    }
+
+    int64_t capacity = 1024;
+    int8_t* data     = checked(malloc(capacity * mll_num_cols));
+    *labels          = checked(malloc(sizeof(float) * capacity));
+    *rows            = 0;
+    char* line       = NULL;
+    size_t size      = 0;
+    for (int64_t number = 1; getline(&line, &size, file) != -1; ++number) {
+        char* p = line;
+        while (isspace((unsigned char)*p)) ++p;
+        if (*p == '\0') continue;
+        if (*rows == capacity) {
+            capacity *= 2;
+            data    = checked(realloc(data, capacity * mll_num_cols));
+            *labels = checked(realloc(*labels, sizeof(float) * capacity));
+        }
+        int8_t* row = data + *rows * mll_num_cols;
+        int64_t col = 0;
+        for (;;) {
+            char* end;
+            double value = strtod(p, &end);
+            if (end == p) break;
+            if (col == mll_num_cols) {
+                (*labels)[*rows] = value;
+            } else if (col < mll_num_cols) {
+                double q = round(value / mll_scales[col]);
+                row[col] = q > 127 ? 127 : q < -127 ? -127 : (int8_t)q;
+            }
+            ++col;
+            for (p = end; isspace((unsigned char)*p); ++p);
+            if (*p != ',') break;
+            ++p;
+        }
+        if (*p != '\0' || col != mll_num_cols + 1) {
+            fprintf(stderr, "%s:%lld: expected %lld comma-separated numbers\n", filename, (long long)number, (long long)mll_num_cols + 1);
+            exit(EXIT_FAILURE);
+        }
+        ++*rows;
+    }
+    if (ferror(file)) {
+        perror(filename);
+        exit(EXIT_FAILURE);
+    }
+    free(line);
+    fclose(file);
+    return data;
+}
+
+// usage: score <data.csv> [repeat]
+int main(int argc, char** argv) {
+    if (argc != 2 && argc != 3) {
+        fprintf(stderr, "usage: %s <data.csv> [repeat]\n", argv[0]);
+        return EXIT_FAILURE;
+    }
+    int64_t repeat = argc == 3 ? atoll(argv[2]) : 1;
+
+    int64_t rows;
+    float* labels;
+    int8_t* data = read_csv(argv[1], &rows, &labels);
+    if (rows == 0) {
+        fprintf(stderr, "%s: no rows\n", argv[1]);
+        return EXIT_FAILURE;
+    }
+    float* out        = checked(malloc(sizeof(float) * rows));
+    int8_t* decisions = checked(malloc(rows));
+
+    struct timespec start, end;
+    clock_gettime(CLOCK_MONOTONIC, &start);
+    for (int64_t i = 0; i != repeat; ++i) mll_score(data, rows, out);
+    clock_gettime(CLOCK_MONOTONIC, &end);
+    double seconds = (end.tv_sec - start.tv_sec) + (end.tv_nsec - start.tv_nsec) / 1e9;
+
+    clock_gettime(CLOCK_MONOTONIC, &start);
+    for (int64_t i = 0; i != repeat; ++i) mll_classify(data, rows, decisions);
+    clock_gettime(CLOCK_MONOTONIC, &end);
+    double classify_seconds = (end.tv_sec - start.tv_sec) + (end.tv_nsec - start.tv_nsec) / 1e9;
+
+    int64_t correct = 0, agree = 0;
+    for (int64_t r = 0; r != rows; ++r) {
+        correct += (out[r] > 0.5f) == (labels[r] > 0.5f);
+        agree += (out[r] > 0.5f) == decisions[r];
+    }
+    printf("accuracy: %f\n", (double)correct / rows);
+    printf("rows/sec: %.0f\n", rows * repeat / seconds);
+    printf("rows/sec (decisions only): %.0f, agreeing on %lld of %lld rows\n", rows * repeat / classify_seconds, (long long)agree,
+           (long long)rows);
+
+    free(decisions);
+    free(out);
+    free(labels);
+    free(data);
+    return EXIT_SUCCESS;
+}
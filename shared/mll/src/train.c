@@ -0,0 +1,112 @@
+#include <ctype.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+// compile with -DMLL_F32 for code generated with Precision.F32
+// REAL_FMT prints a real with enough digits to be parsed back exactly
+#ifdef MLL_F32
+typedef float real;
+#define REAL_FMT "%.9g"
+#else
+typedef double real;
+#define REAL_FMT "%.17g"
+#endif
+
+extern const int64_t mll_num_cols;
+extern const int64_t mll_num_weights;
+void mll_train(real* restrict data, int64_t rows, real* restrict w, real eps, int64_t epochs, real* restrict loss);
+
+void print_array(int n, real* a) {
+    const char* sep = "";
+    printf("(");
+    for (int i = 0; i != n; ++i) {
+        printf("%s" REAL_FMT, sep, a[i]);
+        sep = ", ";
+    }
+    printf(")\n");
+}
+
+// exit with an error message if an allocation failed
+void* checked(void* p) {
+    if (p == NULL) {
+        perror("out of memory");
+        exit(EXIT_FAILURE);
+    }
+    return p;
+}
+
+// read all rows of a CSV file with mll_num_cols values per line (blank lines are skipped)
+real* read_csv(const char* filename, int64_t* rows) {
+    FILE* file = fopen(filename, "r");
+    if (file == NULL) {
+        perror(filename);
+        exit(EXIT_FAILURE);
+    }
+
+    int64_t capacity = 1024;
+    real* data       = checked(malloc(sizeof(real) * capacity * mll_num_cols));
+    *rows            = 0;
+    char* line       = NULL;
+    size_t size      = 0;
+    for (int64_t number = 1; getline(&line, &size, file) != -1; ++number) {
+        char* p = line;
+        while (isspace((unsigned char)*p)) ++p;
+        if (*p == '\0') continue;
+        if (*rows == capacity) {
+            capacity *= 2;
+            data = checked(realloc(data, sizeof(real) * capacity * mll_num_cols));
+        }
+        real* row   = data + *rows * mll_num_cols;
+        int64_t col = 0;
+        for (;;) {
+            char* end;
+            double value = strtod(p, &end);
+            if (end == p) break;
+            if (col < mll_num_cols) row[col] = value;
+            ++col;
+            for (p = end; isspace((unsigned char)*p); ++p);
+            if (*p != ',') break;
+            ++p;
+        }
+        if (*p != '\0' || col != mll_num_cols) {
+            fprintf(stderr, "%s:%lld: expected %lld comma-separated numbers\n", filename, (long long)number, (long long)mll_num_cols);
+            exit(EXIT_FAILURE);
+        }
+        ++*rows;
+    }
+    if (ferror(file)) {
+        perror(filename);
+        exit(EXIT_FAILURE);
+    }
+    free(line);
+    fclose(file);
+    return data;
+}
+
+// usage: train <data.csv> <epochs> <epsilon>
+int main(int argc, char** argv) {
+    if (argc != 4) {
+        fprintf(stderr, "usage: %s <data.csv> <epochs> <epsilon>\n", argv[0]);
+        return EXIT_FAILURE;
+    }
+    int64_t epochs = atoll(argv[2]);
+    real eps       = atof(argv[3]);
+
+    int64_t rows;
+    real* data = read_csv(argv[1], &rows);
+    real* w    = checked(calloc(mll_num_weights, sizeof(real))); // initially all 0
+    real* loss = checked(calloc(epochs, sizeof(real)));
+
+    mll_train(data, rows, w, eps, epochs, loss);
+
+    for (int64_t e = 0; e != epochs; ++e) printf("Epoch %2lld: avgLoss %3.4f\n", (long long)e + 1, loss[e] / rows);
+    printf("weights: ");
+    print_array(mll_num_weights, w);
+
+    free(loss);
+    free(w);
+    free(data);
+    return EXIT_SUCCESS;
+}
@@ -0,0 +1,56 @@
+package mll;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class EGraphTest {
+    @Test void factorsCommonOperand() {
+        var dag    = new DAG(false);
+        var a      = dag.var("a");
+        var root   = a.mul(dag.var("b")).add(dag.var("c").mul(a));
+        var egraph = new EGraph();
+        var res    = egraph.run(root);
+        assertTrue(egraph.cost(res) < egraph.cost(root), egraph.report());
+        assertEquals(root.eval(2., 3., 5.), res.eval(2., 3., 5.));
+    }
+
+    @Test void keepsRootWithoutCheaperForm() {
+        var dag = new DAG(false);
+        var x   = dag.x();
+        assertSame(x, new EGraph().run(x));
+        var exp = x.exp();
+        assertSame(exp, new EGraph().run(exp));
+    }
+
+    @Test void preservesValuesOfGradient() {
+        var dag    = new DAG(false);
+        var grad   = dag.backwards(Graphs.logRegLoss(dag, 3));
+        var egraph = new EGraph();
+        var res    = (Grad) egraph.run(grad);
+        assertTrue(egraph.cost(res) <= egraph.cost(grad), egraph.report());
+        assertEquals(grad.numInputs(), res.numInputs());
+
+        var random = new Random(2);
+        for (int n = 0; n != 20; ++n) {
+            var values = Graphs.values(grad, random);
+            assertArrayEquals(grad.evalOutputs(values), res.evalOutputs(values), 1e-9);
+        }
+    }
+
+    @Test void stopsAtNodeLimit() {
+        var dag    = new DAG(false);
+        var root   = Graphs.logRegLoss(dag, 20);
+        var egraph = new EGraph(200, EGraph.DEFAULT_MAX_MILLIS, EGraph::defaultCost);
+        var res    = egraph.run(root);
+        assertTrue(egraph.report().contains("node limit"), egraph.report());
+
+        var values = Graphs.values(root, new Random(3));
+        assertEquals(root.eval(values), res.eval(values), 1e-9);
+    }
+}
@@ -0,0 +1,85 @@
+package mll;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GraphIOTest {
+    @TempDir Path dir;
+
+    @Test void roundTripsGrad() throws IOException {
+        var dag  = new DAG();
+        var grad = dag.backwards(Graphs.logRegLoss(dag, 3));
+        var file = dir.resolve("grad.mll");
+        GraphIO.save(file, grad);
+
+        var loaded = GraphIO.loadGrad(new DAG(), file);
+        assertEquals(grad.topo().length, loaded.topo().length);
+        assertArrayEquals(Arrays.stream(grad.vars()).map(Var::name).toArray(), Arrays.stream(loaded.vars()).map(Var::name).toArray());
+        var random = new Random(5);
+        for (int n = 0; n != 10; ++n) {
+            var values = Graphs.values(grad, random);
+            assertArrayEquals(grad.evalOutputs(values), loaded.evalOutputs(values));
+        }
+    }
+
+    @Test void roundTripsSeveralRootsSharingOperators() throws IOException {
+        var dag  = new DAG();
+        var x    = dag.x();
+        var e    = x.exp();
+        var file = dir.resolve("roots.mll");
+        GraphIO.save(file, e.add(x), e.mul(x), e);
+
+        var roots = GraphIO.load(new DAG(), file);
+        assertEquals(3, roots.length);
+        assertEquals(roots[2], roots[0].input(0));
+        assertEquals(Math.exp(.5) + .5, roots[0].eval(.5));
+        assertEquals(Math.exp(.5) * .5, roots[1].eval(.5));
+    }
+
+    @Test void replacesFileWithoutLeavingTemporaryFiles() throws IOException {
+        var dag  = new DAG();
+        var file = dir.resolve("graph.mll");
+        GraphIO.save(file, dag.x().exp());
+        GraphIO.save(file, dag.x().log());
+        try (var files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+        assertEquals(Math.log(2.), GraphIO.load(new DAG(), file)[0].eval(2.));
+    }
+
+    @Test void rejectsCorruptFiles() throws IOException {
+        var dag  = new DAG();
+        var file = dir.resolve("grad.mll");
+        GraphIO.save(file, dag.backwards(Graphs.logRegLoss(dag, 2)));
+        var bytes = Files.readAllBytes(file);
+
+        Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+        assertThrows(IOException.class, () -> GraphIO.load(new DAG(), file));
+
+        Files.write(file, Arrays.copyOf(bytes, bytes.length + 1));
+        assertThrows(IOException.class, () -> GraphIO.load(new DAG(), file));
+
+        var random = new Random(6);
+        for (int n = 0; n != 100; ++n) {
+            var corrupt = bytes.clone();
+            int i       = 6 + random.nextInt(corrupt.length - 6); // keep magic number and version
+            corrupt[i] ^= (byte) (1 + random.nextInt(255));
+            Files.write(file, corrupt);
+            try {
+                GraphIO.load(new DAG(), file);
+            } catch (IOException e) {
+                // expected for most corruptions; others still decode to some graph, but nothing else may be thrown
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package mll;
+
+import java.util.Random;
+
+/** Graphs and inputs shared by the tests. */
+final class Graphs {
+    private Graphs() {}
+
+    /** Logistic regression loss -(y log s + (1 - y) log(1 - s)) with s = 1 / (1 + exp(-(w0 + w1 x1 + ... + wD xD))),
+     * written with the elementary operators only (in a rewriting DAG, the smart constructors fuse parts of it). */
+    static Op logRegLoss(DAG dag, int dim) {
+        Op eta = dag.var("w0");
+        for (int i = 1; i <= dim; ++i) eta = eta.add(dag.var("w" + i).mul(dag.var("x" + i)));
+        var s = dag.lit1().div(dag.lit1().add(eta.neg().exp()));
+        var y = dag.y();
+        return y.mul(s.log()).add(dag.lit1().sub(y).mul(dag.lit1().sub(s).log())).neg();
+    }
+
+    /** Random values in [-2, 2) for the free variables of root (y in [0, 1)). */
+    static double[] values(Op root, Random random) {
+        var vars   = root.freeVars();
+        var values = new double[vars.length];
+        for (int i = 0; i != vars.length; ++i)
+            values[i] = vars[i].name().equals("y") ? random.nextDouble() : 4. * random.nextDouble() - 2.;
+        return values;
+    }
+
+    /** Outputs of root (see Op#evalOutputs) computed by the recursive HashMap interpreter. */
+    static double[] interpret(Op root, double... values) {
+        var env = new java.util.HashMap<Op, Double>();
+        var res = root.eval(env, values);
+        return root instanceof Grad grad ? grad.outputs(env) : new double[] { res };
+    }
+}
@@ -0,0 +1,70 @@
+package mll;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class MemoryPlanTest {
+    @Test void evalMatchesInterpreter() {
+        var dag    = new DAG();
+        var grad   = dag.backwards(Graphs.logRegLoss(dag, 4));
+        var plan   = MemoryPlan.of(grad);
+        var ctx    = plan.newContext();
+        var random = new Random(7);
+        assertTrue(plan.numSlots() < plan.size(), plan.numSlots() + " slots for " + plan.size() + " operators");
+        for (int n = 0; n != 20; ++n) {
+            var values   = Graphs.values(grad, random);
+            var expected = Graphs.interpret(grad, values);
+            assertArrayEquals(expected, plan.eval(values));
+            assertArrayEquals(expected, ctx.eval(values));
+            assertArrayEquals(expected, grad.evalOutputs(values));
+        }
+    }
+
+    @Test void evalBatchMatchesEval() {
+        var dag     = new DAG();
+        var loss    = Graphs.logRegLoss(dag, 2);
+        int rows    = MemoryPlan.BATCH_CHUNK + 17; // more than one chunk
+        var random  = new Random(8);
+        var columns = new double[loss.freeVars().length][rows];
+        for (int r = 0; r != rows; ++r) {
+            var values = Graphs.values(loss, random);
+            for (int i = 0; i != values.length; ++i) columns[i][r] = values[i];
+        }
+        var batch = loss.evalBatch(columns);
+        assertEquals(rows, batch.length);
+        for (int r = 0; r != rows; ++r) {
+            var values = new double[columns.length];
+            for (int i = 0; i != values.length; ++i) values[i] = columns[i][r];
+            assertEquals(loss.eval(values), batch[r], 1e-12);
+        }
+    }
+
+    @Test void evalBatchBroadcastsConstantGraph() {
+        var dag  = new DAG();
+        var plan = MemoryPlan.of(dag.lit2().exp());
+        assertEquals(1, plan.evalBatch(new double[0][])[0].length);
+        assertArrayEquals(new double[] { Math.exp(2.), Math.exp(2.), Math.exp(2.) }, plan.evalBatch(3, new double[0][])[0]);
+        assertEquals(3, plan.evalBatch(3, new float[0][])[0].length);
+    }
+
+    @Test void planIsCachedPerRoot() {
+        var dag = new DAG();
+        var f   = dag.x().exp();
+        assertSame(MemoryPlan.of(f), MemoryPlan.of(f));
+    }
+
+    @Test void rejectsWrongNumberOfValues() {
+        var dag  = new DAG();
+        var plan = MemoryPlan.of(dag.x().mul(dag.y()));
+        assertThrows(IllegalArgumentException.class, () -> plan.eval(1.));
+        assertThrows(IllegalArgumentException.class, () -> plan.evalBatch(new double[] { 1. }));
+        assertThrows(IllegalArgumentException.class, () -> plan.evalBatch(2, new double[] { 1. }, new double[] { 2. }));
+    }
+}
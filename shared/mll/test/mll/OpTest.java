@@ -0,0 +1,85 @@
+package mll;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class OpTest {
+    @Test void specializeBindsVariables() {
+        var dag      = new DAG();
+        var loss     = Graphs.logRegLoss(dag, 2);
+        var bindings = new HashMap<Var, Double>();
+        bindings.put(dag.var("w0"), .5);
+        bindings.put(dag.var("w1"), -1.);
+        bindings.put(dag.var("w2"), 2.);
+        var res = loss.specialize(bindings);
+        assertArrayEquals(new String[] { "x1", "x2", "y" }, Arrays.stream(res.freeVars()).map(Var::name).toArray());
+
+        // free variables are ordered by name: w0, w1, w2, x1, x2, y
+        assertEquals(loss.eval(.5, -1., 2., .3, -.7, 1.), res.eval(.3, -.7, 1.), 1e-15);
+    }
+
+    @Test void specializeFoldsFullyBoundGraph() {
+        var dag      = new DAG();
+        var x        = dag.x();
+        var y        = dag.y();
+        var bindings = new HashMap<Var, Double>();
+        bindings.put(x, 2.);
+        bindings.put(y, 3.);
+        var res = x.mul(y).add(x.exp()).specialize(bindings);
+        assertTrue(res instanceof Lit, res.toString());
+        assertEquals(6. + Math.exp(2.), ((Lit) res).get(), 1e-12);
+    }
+
+    @Test void backwardsMatchesFiniteDifferences() {
+        var dag    = new DAG();
+        var loss   = Graphs.logRegLoss(dag, 3);
+        var grad   = loss.backwards();
+        var vars   = grad.vars();
+        var values = Graphs.values(loss, new Random(4));
+        var out    = grad.evalOutputs(values);
+        assertEquals(loss.eval(values), grad.result(out));
+        double h = 1e-6;
+        for (int i = 0; i != vars.length; ++i) {
+            var plus  = values.clone();
+            var minus = values.clone();
+            plus[i]  += h;
+            minus[i] -= h;
+            double numeric = (loss.eval(plus) - loss.eval(minus)) / (2 * h);
+            assertEquals(numeric, grad.grad(out, vars[i].name()), 1e-6, vars[i].name());
+        }
+    }
+
+    @Test void backwardsOfSeveralResultsMatchesSingleResults() {
+        var dag  = new DAG();
+        var x    = dag.x();
+        var y    = dag.y();
+        var f    = x.mul(y).exp();
+        var g    = x.log().add(f);
+        var both = dag.backwards(f, g);
+        assertEquals(2, both.numResults());
+
+        var out = both.evalOutputs(1.5, -.5);
+        var df  = f.backwards().evalOutputs(1.5, -.5);
+        var dg  = g.backwards().evalOutputs(1.5, -.5);
+        assertEquals(df[0], both.result(out, 0));
+        assertEquals(dg[0], both.result(out, 1));
+        for (var name : new String[] { "x", "y" }) {
+            assertEquals(f.backwards().grad(df, name), both.grad(out, 0, name), 1e-12);
+            assertEquals(g.backwards().grad(dg, name), both.grad(out, 1, name), 1e-12);
+        }
+    }
+
+    @Test void backwardsRejectsInvalidResults() {
+        var dag = new DAG();
+        assertThrows(IllegalArgumentException.class, () -> dag.backwards());
+        assertThrows(IllegalArgumentException.class, () -> dag.backwards(dag.x(), new DAG().x()));
+    }
+}
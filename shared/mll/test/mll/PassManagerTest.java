@@ -0,0 +1,63 @@
+package mll;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class PassManagerTest {
+    @Test void foldsConstants() {
+        var dag = new DAG(false);
+        var x   = dag.x();
+        var res = PassManager.standard().run(dag.lit2().add(dag.lit(3.)).mul(x));
+        assertEquals(2, res.numInputs());
+        assertSame(x, res.input(0));
+        assertTrue(Lit.is(res.input(1), 5.), res.toString());
+    }
+
+    @Test void appliesIdentities() {
+        var dag = new DAG(false);
+        var x   = dag.x();
+        assertSame(x, PassManager.standard().run(x.mul(dag.lit1()).add(dag.lit0())));
+        assertSame(x, PassManager.standard().run(x.neg().neg()));
+        assertTrue(Lit.is(PassManager.standard().run(x.mul(dag.lit0())), 0.));
+    }
+
+    @Test void unifiesCommutedInputs() {
+        var dag = new DAG(false);
+        var x   = dag.x();
+        var y   = dag.y();
+        var res = PassManager.standard().run(x.add(y).mul(y.add(x)));
+        assertSame(res.input(0), res.input(1));
+    }
+
+    @Test void preservesValuesOfGradient() {
+        var dag    = new DAG(false);
+        var grad   = dag.backwards(Graphs.logRegLoss(dag, 3));
+        var before = grad.topo().length;
+        var pm     = PassManager.standard();
+        var res    = pm.run(grad);
+        assertTrue(res.topo().length < before, pm.report());
+
+        var random = new Random(1);
+        for (int n = 0; n != 20; ++n) {
+            var values = Graphs.values(grad, random);
+            assertArrayEquals(grad.evalOutputs(values), res.evalOutputs(values), 1e-12);
+        }
+    }
+
+    @Test void prunesUnreachableOperators() {
+        var dag  = new DAG(false);
+        var x    = dag.x();
+        var keep = dag.y().exp();
+        var res  = PassManager.standard().run(x.mul(dag.lit1()).add(dag.lit0()), keep);
+        var live = new java.util.HashSet<Op>(Arrays.asList(res.topo()));
+        live.addAll(Arrays.asList(keep.topo()));
+        assertEquals(live.size(), dag.size());
+    }
+}